@@ -0,0 +1,39 @@
+// BenchmarkRunner.java
+// Runs StorageBenchmark and saves its results as JSON
+package com.deitel.movieapp;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner
+{
+   // runs the benchmarks, writing results/<date-time>.json; JMH options
+   // such as "-p rows=1000" or "getOneMovie" narrow the run
+   public static void main(String[] args) throws Exception
+   {
+      File results = new File("results");
+      results.mkdirs();
+      String name = 
+         new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+      
+      CommandLineOptions commandLine = new CommandLineOptions(args);
+      OptionsBuilder builder = new OptionsBuilder();
+      builder.parent(commandLine);
+      
+      if (commandLine.getIncludes().isEmpty())
+         builder.include(StorageBenchmark.class.getSimpleName());
+      
+      Options options = builder
+         .resultFormat(ResultFormatType.JSON)
+         .result(new File(results, name + ".json").getPath())
+         .build();
+      new Runner(options).run();
+   } // end method main
+} // end class BenchmarkRunner
@@ -0,0 +1,306 @@
+// JdbcMovieStore.java
+// DatabaseConnector's writes and reads over sqlite-jdbc, for benchmarking
+package com.deitel.movieapp;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class JdbcMovieStore
+{
+   // genres given to generated movies
+   private static final String[] GENRES = { "Action", "Comedy", 
+      "Documentary", "Drama", "Horror", "Romance", "Science Fiction" };
+   
+   private final Connection connection;
+   
+   // compiled statements by SQL, as DatabaseConnector's StatementCache
+   private final Map<String, PreparedStatement> statements = 
+      new HashMap<String, PreparedStatement>();
+   
+   // the app's own movie writes, run with the statements above
+   private final MovieWrites<SQLException> writes = 
+      new MovieWrites<SQLException>()
+      {
+         @Override
+         protected long queryLong(String sql, Object... args) 
+            throws SQLException
+         {
+            return JdbcMovieStore.this.queryLong(sql, args);
+         }
+         
+         @Override
+         protected long[] queryLongs(String sql, Object... args) 
+            throws SQLException
+         {
+            ResultSet result = statement(sql, args).executeQuery();
+            long[] longs = new long[4];
+            int count = 0;
+            
+            while (result.next())
+            {
+               if (count == longs.length)
+                  longs = Arrays.copyOf(longs, count * 2);
+               
+               longs[count++] = result.getLong(1);
+            }
+            
+            result.close();
+            return Arrays.copyOf(longs, count);
+         }
+         
+         @Override
+         protected String queryString(String sql, Object... args) 
+            throws SQLException
+         {
+            ResultSet result = statement(sql, args).executeQuery();
+            
+            try
+            {
+               return result.next() ? result.getString(1) : null;
+            }
+            finally
+            {
+               result.close();
+            }
+         }
+         
+         @Override
+         protected long executeInsert(String sql, Object... args) 
+            throws SQLException
+         {
+            if (statement(sql, args).executeUpdate() == 0)
+               return -1;
+            
+            return JdbcMovieStore.this.queryLong("SELECT last_insert_rowid()");
+         }
+         
+         @Override
+         protected int executeUpdateDelete(String sql, Object... args) 
+            throws SQLException
+         {
+            return statement(sql, args).executeUpdate();
+         }
+      }; // end MovieWrites writes
+   
+   // opens (creating if necessary) the database file at path
+   public JdbcMovieStore(String path) throws SQLException
+   {
+      connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+      Statement statement = connection.createStatement();
+      
+      try
+      {
+         // the app's open helper enables write-ahead logging too
+         statement.execute("PRAGMA journal_mode=WAL");
+         ResultSet version = statement.executeQuery("PRAGMA user_version");
+         boolean created = version.next() && version.getInt(1) > 0;
+         version.close();
+         
+         if (!created)
+         {
+            for (String sql : MovieSchema.CREATE_TABLES)
+               statement.execute(sql);
+            
+            for (String sql : MovieSchema.CREATE_STATISTICS_TABLES)
+               statement.execute(sql);
+            
+            for (String sql : MovieSchema.CREATE_STATISTICS_TRIGGERS)
+               statement.execute(sql);
+            
+            for (String sql : MovieSchema.CREATE_SORT_DIRECTOR_TRIGGERS)
+               statement.execute(sql);
+            
+            for (String sql : MovieSchema.CREATE_MOVIES_INDEXES)
+               statement.execute(sql);
+            
+            statement.execute(MovieSchema.CREATE_MATCH_HASH_INDEX);
+            
+            statement.execute(
+               "PRAGMA user_version=" + MovieSchema.DATABASE_VERSION);
+         }
+      }
+      finally
+      {
+         statement.close();
+      }
+      
+      connection.setAutoCommit(false); // transactions end at commit
+   } // end JdbcMovieStore constructor
+   
+   // inserts count generated movies in one transaction, as MovieImporter
+   // batches do
+   public void loadMovies(int count, long firstNumber) throws SQLException
+   {
+      try
+      {
+         for (int i = 0; i < count; ++i)
+         {
+            long number = firstNumber + i;
+            writes.insertMovie("Movie " + number, people(number), 
+               genre(number), String.valueOf(1900 + number % 120));
+         }
+         
+         connection.commit();
+      }
+      catch (SQLException e)
+      {
+         connection.rollback();
+         throw e;
+      }
+   } // end method loadMovies
+   
+   // inserts a new movie in its own transaction; returns its _id
+   public long insertMovie(String name, String director, String writer,  
+      String actor, String actress, String genre, String year) 
+      throws SQLException
+   {
+      try
+      {
+         long rowID = writes.insertMovie(name, 
+            new String[] { director, writer, actor, actress }, genre, year);
+         connection.commit();
+         return rowID;
+      }
+      catch (SQLException e)
+      {
+         connection.rollback();
+         throw e;
+      }
+   } // end method insertMovie
+   
+   // updates an existing movie in its own transaction
+   public void updateMovie(long id, String name, String director, 
+      String writer, String actor, String actress, String genre, String year) 
+      throws SQLException
+   {
+      String[] people = { director, writer, actor, actress }; // by role
+      
+      try
+      {
+         writes.queryName(id); // read for the change event, as the app does
+         writes.updateMovie(id, name, people, genre, year);
+         connection.commit();
+      }
+      catch (SQLException e)
+      {
+         connection.rollback();
+         throw e;
+      }
+   } // end method updateMovie
+   
+   // deletes a movie in its own transaction
+   public void deleteMovie(long id) throws SQLException
+   {
+      try
+      {
+         writes.queryName(id); // read for the change event, as the app does
+         writes.deleteMovie(id);
+         connection.commit();
+      }
+      catch (SQLException e)
+      {
+         connection.rollback();
+         throw e;
+      }
+   } // end method deleteMovie
+   
+   // return every movie's (_id, name) in list order; the caller closes it
+   public ResultSet getAllMovies() throws SQLException
+   {
+      return statement(MovieQueries.SELECT_ALL_MOVIES).executeQuery();
+   }
+   
+   // return one movie with its credits; the caller closes it
+   public ResultSet getOneMovie(long id) throws SQLException
+   {
+      return statement(MovieQueries.SELECT_MOVIE, id).executeQuery();
+   }
+   
+   // return (_id, name, year, match_hash) of every movie sharing its 
+   // match hash with another, as the duplicate scan reads them; the 
+   // caller closes it
+   public ResultSet getDuplicates() throws SQLException
+   {
+      return statement(MovieQueries.SELECT_DUPLICATES).executeQuery();
+   }
+   
+   // ends the read transaction a query left open, so WAL checkpoints and
+   // later writes are not held back
+   public void endRead() throws SQLException
+   {
+      connection.commit();
+   }
+   
+   // releases the statements and the connection
+   public void close() throws SQLException
+   {
+      for (PreparedStatement statement : statements.values())
+         statement.close();
+      
+      statements.clear();
+      connection.close();
+   }
+   
+   // returns the first column of the query's first row, or -1 if no rows
+   private long queryLong(String sql, Object... args) throws SQLException
+   {
+      ResultSet result = statement(sql, args).executeQuery();
+      
+      try
+      {
+         return result.next() ? result.getLong(1) : -1;
+      }
+      finally
+      {
+         result.close();
+      }
+   }
+   
+   // returns the cached statement for sql with args bound
+   private PreparedStatement statement(String sql, Object... args) 
+      throws SQLException
+   {
+      PreparedStatement statement = statements.get(sql);
+      
+      if (statement == null)
+      {
+         statement = connection.prepareStatement(sql);
+         statements.put(sql, statement);
+      }
+      
+      statement.clearParameters();
+      
+      for (int i = 0; i < args.length; ++i)
+      {
+         if (args[i] == null)
+            statement.setNull(i + 1, Types.NULL);
+         else
+            statement.setObject(i + 1, args[i]);
+      }
+      
+      return statement;
+   } // end method statement
+   
+   // returns generated people for movie number, drawn from a pool so that
+   // people are shared between movies as in a real library
+   static String[] people(long number)
+   {
+      return new String[] { "Director " + number % 5000, 
+         "Writer " + number % 7000, "Actor " + number % 20000, 
+         "Actress " + number % 20000 };
+   }
+   
+   // returns a generated genre for movie number
+   static String genre(long number)
+   {
+      return GENRES[(int) (number % GENRES.length)];
+   }
+} // end class JdbcMovieStore
@@ -0,0 +1,201 @@
+// StorageBenchmark.java
+// JMH benchmarks of the movie writes and reads at several library sizes
+package com.deitel.movieapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageBenchmark
+{
+   // movies each deleteMovie invocation removes, one iteration each
+   private static final int DELETE_BATCH = 1000;
+   
+   // movies in the library before each benchmark runs
+   @Param({ "1000", "10000", "100000", "1000000" })
+   public int rows;
+   
+   private File databaseFile;
+   private JdbcMovieStore store;
+   private Random random;
+   private long nextNumber; // numbers the movies benchmarks insert
+   
+   // the movies one deleteMovie iteration removes; a State of its own, so
+   // only deleteMovie's iterations add them and the other benchmarks 
+   // read a library of exactly rows movies
+   @State(Scope.Thread)
+   public static class MoviesToDelete
+   {
+      private final long[] ids = new long[DELETE_BATCH];
+      
+      // adds the movies the next deleteMovie iteration removes
+      @Setup(Level.Iteration)
+      public void addMovies(StorageBenchmark benchmark) throws SQLException
+      {
+         for (int i = 0; i < DELETE_BATCH; ++i)
+         {
+            long number = benchmark.nextNumber++;
+            String[] people = JdbcMovieStore.people(number);
+            ids[i] = benchmark.store.insertMovie("Movie " + number, 
+               people[0], people[1], people[2], people[3], 
+               JdbcMovieStore.genre(number), "1999");
+         }
+      }
+   } // end class MoviesToDelete
+   
+   // creates a library of rows movies in a new database file
+   @Setup(Level.Trial)
+   public void createLibrary() throws IOException, SQLException
+   {
+      databaseFile = File.createTempFile("movies", ".db");
+      databaseFile.delete(); // SQLite creates it
+      store = new JdbcMovieStore(databaseFile.getPath());
+      random = new Random(42);
+      
+      // load in batches so the transaction's undo state stays small
+      for (int loaded = 0; loaded < rows; loaded += 10000)
+         store.loadMovies(Math.min(10000, rows - loaded), loaded + 1);
+      
+      nextNumber = rows + 1;
+   }
+   
+   // deletes the database file with its write-ahead log
+   @TearDown(Level.Trial)
+   public void deleteLibrary() throws SQLException
+   {
+      store.close();
+      String path = databaseFile.getPath();
+      new File(path + "-wal").delete();
+      new File(path + "-shm").delete();
+      databaseFile.delete();
+   }
+   
+   // inserts one new movie with its credits and full-text entry
+   @Benchmark
+   public long insertMovie() throws SQLException
+   {
+      long number = nextNumber++;
+      String[] people = JdbcMovieStore.people(number);
+      return store.insertMovie("Movie " + number, people[0], people[1], 
+         people[2], people[3], JdbcMovieStore.genre(number), "1999");
+   }
+   
+   // rewrites a random original movie with new people and a new name
+   @Benchmark
+   public void updateMovie() throws SQLException
+   {
+      long id = randomID();
+      long number = nextNumber++;
+      String[] people = JdbcMovieStore.people(number);
+      store.updateMovie(id, "Movie " + number, people[0], people[1], 
+         people[2], people[3], JdbcMovieStore.genre(number), "2001");
+   }
+   
+   // deletes the movies added for this iteration, each in its own 
+   // transaction, so the library does not shrink while other benchmarks
+   // run; the score is the time of one delete
+   @Benchmark
+   @BenchmarkMode(Mode.SingleShotTime)
+   @OperationsPerInvocation(DELETE_BATCH)
+   public void deleteMovie(MoviesToDelete movies) throws SQLException
+   {
+      for (long id : movies.ids)
+         store.deleteMovie(id);
+   }
+   
+   // reads every (_id, name) row as the movie list's reload did
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   public void getAllMovies(Blackhole blackhole) throws SQLException
+   {
+      ResultSet movies = store.getAllMovies();
+      
+      try
+      {
+         while (movies.next())
+         {
+            blackhole.consume(movies.getLong(1));
+            blackhole.consume(movies.getString(2));
+         }
+      }
+      finally
+      {
+         movies.close();
+         store.endRead();
+      }
+   } // end method getAllMovies
+   
+   // reads one random movie with its credits, as DetailsFragment does
+   @Benchmark
+   public void getOneMovie(Blackhole blackhole) throws SQLException
+   {
+      ResultSet movie = store.getOneMovie(randomID());
+      
+      try
+      {
+         if (movie.next())
+         {
+            for (int column = 1; column <= 8; ++column)
+               blackhole.consume(movie.getString(column));
+         }
+      }
+      finally
+      {
+         movie.close();
+         store.endRead();
+      }
+   } // end method getOneMovie
+   
+   // finds every group of duplicate movies, as DuplicateScanner does; the
+   // generated library has none, so this times the grouping of the 
+   // whole match hash index
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   public void scanDuplicates(Blackhole blackhole) throws SQLException
+   {
+      ResultSet movies = store.getDuplicates();
+      
+      try
+      {
+         while (movies.next())
+            blackhole.consume(MovieKeys.matchKey(movies.getString(2), 
+               movies.getString(3)));
+      }
+      finally
+      {
+         movies.close();
+         store.endRead();
+      }
+   } // end method scanDuplicates
+   
+   // returns the _id of a random movie loaded by createLibrary
+   private long randomID()
+   {
+      return 1 + random.nextInt(rows);
+   }
+} // end class StorageBenchmark
@@ -9,7 +9,9 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -18,6 +20,7 @@ import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Toast;
 
 public class AddEditFragment extends Fragment
 {
@@ -28,10 +31,16 @@ public class AddEditFragment extends Fragment
       public void onAddEditCompleted(long rowID);
    }
    
+   // request code of the image picker started for a poster
+   private static final int CHOOSE_POSTER_REQUEST = 1;
+   
    private AddEditFragmentListener listener; 
    
    private long rowID; // database row ID of the contact
    private Bundle movieInfoBundle; // arguments for editing a contact
+   private Uri posterUri; // poster image chosen, or null to keep the old
+   private Button choosePosterButton;
+   private Button saveMovieButton;
 
    // EditTexts for contact information
    private EditText nameEditText;
@@ -54,6 +63,7 @@ public class AddEditFragment extends Fragment
    @Override
    public void onDetach()
    {
+      QueryScheduler.getInstance(getActivity()).cancelAll(this);
       super.onDetach();
       listener = null; 
    }
@@ -92,13 +102,47 @@ public class AddEditFragment extends Fragment
          yearEditText.setText(movieInfoBundle.getString("year"));  
       } 
       
+      // set Choose Poster Button's event listener
+      choosePosterButton = 
+         (Button) view.findViewById(R.id.choosePosterButton);
+      choosePosterButton.setOnClickListener(choosePosterButtonClicked);
+      
+      if (posterUri != null) // chosen before a configuration change
+         choosePosterButton.setText(R.string.button_poster_chosen);
+      
       // set Save Contact Button's event listener 
-      Button saveMovieButton = 
-         (Button) view.findViewById(R.id.saveMovieButton);
+      saveMovieButton = (Button) view.findViewById(R.id.saveMovieButton);
       saveMovieButton.setOnClickListener(saveMovieButtonClicked);
       return view;
    }
 
+   // lets the user pick the poster image in any app that provides images
+   OnClickListener choosePosterButtonClicked = new OnClickListener()
+   {
+      @Override
+      public void onClick(View v)
+      {
+         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+         intent.setType("image/*");
+         intent.addCategory(Intent.CATEGORY_OPENABLE);
+         startActivityForResult(intent, CHOOSE_POSTER_REQUEST);
+      }
+   }; // end OnClickListener choosePosterButtonClicked
+   
+   // remember the chosen poster; it is copied once the movie is saved
+   @Override
+   public void onActivityResult(int requestCode, int resultCode, 
+      Intent data)
+   {
+      if (requestCode == CHOOSE_POSTER_REQUEST && 
+         resultCode == Activity.RESULT_OK && data != null && 
+         data.getData() != null)
+      {
+         posterUri = data.getData();
+         choosePosterButton.setText(R.string.button_poster_chosen);
+      }
+   }
+
    // responds to event generated when user saves a contact
    OnClickListener saveMovieButtonClicked = new OnClickListener() 
    {
@@ -106,35 +150,7 @@ public class AddEditFragment extends Fragment
       public void onClick(View v) 
       {
          if (nameEditText.getText().toString().trim().length() != 0)
-         {
-            // AsyncTask to save contact, then notify listener 
-            AsyncTask<Object, Object, Object> saveContactTask = 
-               new AsyncTask<Object, Object, Object>() 
-               {
-                  @Override
-                  protected Object doInBackground(Object... params) 
-                  {
-                     saveContact(); // save contact to the database
-                     return null;
-                  } 
-      
-                  @Override
-                  protected void onPostExecute(Object result) 
-                  {
-                     // hide soft keyboard
-                     InputMethodManager imm = (InputMethodManager) 
-                        getActivity().getSystemService(
-                           Context.INPUT_METHOD_SERVICE);
-                     imm.hideSoftInputFromWindow(
-                        getView().getWindowToken(), 0);
-
-                     listener.onAddEditCompleted(rowID);
-                  } 
-               }; // end AsyncTask
-               
-            // save the contact to the database using a separate thread
-            saveContactTask.execute((Object[]) null); 
-         } 
+            checkForDuplicate(); // then saves, unless the user cancels
          else // required contact name is blank, so display error dialog
          {
             DialogFragment errorSaving = 
@@ -156,36 +172,135 @@ public class AddEditFragment extends Fragment
       } // end method onClick
    }; // end OnClickListener saveMovieButtonClicked
 
-   // saves contact information to the database
-   private void saveContact() 
+   // looks for a movie this one would duplicate, off the GUI thread, and
+   // saves it if there is none or asks whether to save another copy
+   private void checkForDuplicate()
    {
-      // get DatabaseConnector to interact with the SQLite database
-      DatabaseConnector databaseConnector = 
-         new DatabaseConnector(getActivity());
+      final String name = nameEditText.getText().toString();
+      final String year = yearEditText.getText().toString();
+      MovieWriter movieWriter = MovieWriter.getInstance(getActivity());
+      final long excludeID = movieWriter.resolve(rowID); // this movie
 
-      if (movieInfoBundle == null)
+      // a queued movie is not in the database yet
+      if (movieWriter.findQueuedDuplicate(name, year, rowID) != -1)
       {
-         // insert the contact information into the database
-         rowID = databaseConnector.insertMovie(
-            nameEditText.getText().toString(),
-            directorEditText.getText().toString(), 
-            writerEditText.getText().toString(), 
-            actorEditText.getText().toString(),
-            actressEditText.getText().toString(), 
-            genreEditText.getText().toString(), 
-            yearEditText.getText().toString());
-      } 
-      else
-      {
-         databaseConnector.updateMovie(rowID,
-            nameEditText.getText().toString(),
-            directorEditText.getText().toString(), 
-            writerEditText.getText().toString(), 
-            actorEditText.getText().toString(),
-            actressEditText.getText().toString(), 
-            genreEditText.getText().toString(), 
-            yearEditText.getText().toString());
+         confirmDuplicate(name);
+         return;
       }
+
+      saveMovieButton.setEnabled(false); // one check per click
+      QueryScheduler.getInstance(getActivity()).submit(this, 
+         "duplicate check", QueryScheduler.PRIORITY_VISIBLE, 
+         new QueryScheduler.Query<Long>()
+         {
+            @Override
+            protected Long run(DatabaseConnector databaseConnector)
+            {
+               return databaseConnector.findDuplicate(name, year, excludeID);
+            }
+
+            @Override
+            protected void onResult(Long duplicateID)
+            {
+               saveMovieButton.setEnabled(true);
+
+               if (duplicateID != -1)
+                  confirmDuplicate(name);
+               else
+                  saveMovie();
+            }
+
+            // the check is only advisory, so a failed one does not stop
+            // the save; MovieWriter reports it if the database is at fault
+            @Override
+            protected void onFailed(RuntimeException e)
+            {
+               saveMovieButton.setEnabled(true);
+               saveMovie();
+            }
+         });
+   } // end method checkForDuplicate
+
+   // asks whether to save a movie that duplicates another
+   private void confirmDuplicate(final String name)
+   {
+      DialogFragment confirmDuplicate = 
+         new DialogFragment()
+         {
+            @Override
+            public Dialog onCreateDialog(Bundle savedInstanceState)
+            {
+               AlertDialog.Builder builder = 
+                  new AlertDialog.Builder(getActivity());
+               builder.setTitle(R.string.confirm_duplicate_title);
+               builder.setMessage(
+                  getString(R.string.confirm_duplicate_message, name));
+               builder.setPositiveButton(R.string.button_save_anyway,
+                  new DialogInterface.OnClickListener()
+                  {
+                     @Override
+                     public void onClick(DialogInterface dialog, int button)
+                     {
+                        saveMovie();
+                     }
+                  });
+               builder.setNegativeButton(R.string.button_cancel, null);
+               return builder.create();
+            }
+         };
+
+      confirmDuplicate.show(getFragmentManager(), "confirm duplicate");
+   } // end method confirmDuplicate
+
+   // queues the movie and returns to the list or details
+   private void saveMovie()
+   {
+      // queue the contact for MovieWriter; the list and details 
+      // show it at once and undo it if the write fails
+      final Context context = getActivity().getApplicationContext();
+      final Uri chosenPoster = posterUri;
+      saveContact(new MovieWriter.Callback()
+         {
+            @Override
+            public void onWritten(long writtenID) 
+            {
+               if (writtenID == -1)
+                  Toast.makeText(context, R.string.error_saving, 
+                     Toast.LENGTH_LONG).show();
+               else if (writtenID > 0 && chosenPoster != null)
+                  PosterCache.getInstance(context).setPoster(
+                     writtenID, chosenPoster); // needs the rowID
+            } 
+         }); // end call to saveContact
+
+      // hide soft keyboard
+      InputMethodManager imm = (InputMethodManager) 
+         getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
+      imm.hideSoftInputFromWindow(getView().getWindowToken(), 0);
+
+      // notify listener without waiting for the write
+      listener.onAddEditCompleted(rowID);
+   } // end method saveMovie
+
+   // queues contact information to be written to the database
+   private void saveContact(MovieWriter.Callback callback) 
+   {
+      // MovieWriter merges repeated saves and commits them together
+      MovieWriter movieWriter = MovieWriter.getInstance(getActivity());
+      Movie movie = new Movie(rowID, 
+         nameEditText.getText().toString(),
+         directorEditText.getText().toString(), 
+         writerEditText.getText().toString(), 
+         actorEditText.getText().toString(),
+         actressEditText.getText().toString(), 
+         genreEditText.getText().toString(), 
+         yearEditText.getText().toString());
+
+      if (movieInfoBundle == null)
+         rowID = movieWriter.insert(movie, callback); // temporary rowID
+      else
+         movieWriter.update(rowID, movieInfoBundle.getString("name"), 
+            movie, callback);
    } // end method saveContact
 } // end class AddEditFragment
 
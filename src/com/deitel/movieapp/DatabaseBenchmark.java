@@ -0,0 +1,223 @@
+// DatabaseBenchmark.java
+// Measures per-operation latency of the movie database connection strategies
+package com.deitel.movieapp;
+
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+public class DatabaseBenchmark
+{
+   // scratch database so the benchmark never touches the user's movies
+   private static final String BENCHMARK_DATABASE = "MovieBenchmark";
+   
+   // connection strategies measured
+   private static final int OPEN_CLOSE = 0; // reopen for every call
+   private static final int SHARED = 1; // one WAL connection, SQL per call
+   private static final int STATEMENTS = 2; // plus bound, compiled SQL
+   
+   // statements compiled once for the STATEMENTS strategy
+   private static final String INSERT_SQL = "INSERT INTO movies " +
+      "(name, director, writer, actor, actress, genre, year) " +
+      "VALUES (?, ?, ?, ?, ?, ?, ?)";
+   private static final String UPDATE_SQL = "UPDATE movies SET name=?, " +
+      "director=?, writer=?, actor=?, actress=?, genre=?, year=? " +
+      "WHERE _id=?";
+   private static final String QUERY_SQL = 
+      "SELECT name FROM movies WHERE _id=?";
+   private static final String DELETE_SQL = "DELETE FROM movies WHERE _id=?";
+
+   private final Context context;
+   private final int operations; // number of rows inserted/updated/etc.
+
+   // public constructor for DatabaseBenchmark
+   public DatabaseBenchmark(Context context, int operations)
+   {
+      this.context = context.getApplicationContext();
+      this.operations = operations;
+   }
+
+   // runs the benchmark and returns a printable report comparing the old
+   // open/close-per-operation strategy with one shared WAL connection, 
+   // and that connection's SQL built per call with bound statements
+   public String run()
+   {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format(Locale.US,
+         "%d operations, mean latency in microseconds%n", operations));
+      report.append(String.format(Locale.US, "%-22s%10s%10s%10s%10s%n",
+         "strategy", "insert", "update", "query", "delete"));
+
+      measure(OPEN_CLOSE, report); // reopen database for every call
+      measure(SHARED, report); // one long-lived WAL connection
+      measure(STATEMENTS, report); // and no SQL compiled per call
+
+      context.deleteDatabase(BENCHMARK_DATABASE);
+      return report.toString();
+   }
+
+   // times each operation type with the given connection strategy
+   private void measure(int strategy, StringBuilder report)
+   {
+      context.deleteDatabase(BENCHMARK_DATABASE); // start from empty table
+      boolean shared = strategy != OPEN_CLOSE;
+      SQLiteDatabase sharedDatabase = shared ? openDatabase(true) : null;
+      long[] rowIDs = new long[operations];
+      long[] nanos = new long[4]; // insert, update, query, delete
+      
+      if (strategy == STATEMENTS)
+      {
+         measureStatements(sharedDatabase, rowIDs, nanos);
+         sharedDatabase.close();
+         appendResult(strategy, nanos, report);
+         return;
+      }
+
+      for (int operation = 0; operation < nanos.length; ++operation)
+      {
+         for (int i = 0; i < operations; ++i)
+         {
+            long start = System.nanoTime();
+            SQLiteDatabase database =
+               shared ? sharedDatabase : openDatabase(false);
+
+            switch (operation)
+            {
+               case 0:
+                  rowIDs[i] = database.insert("movies", null, movie(i));
+                  break;
+               case 1:
+                  database.update(
+                     "movies", movie(i + operations), "_id=" + rowIDs[i], null);
+                  break;
+               case 2:
+                  Cursor cursor = database.query("movies", null,
+                     "_id=" + rowIDs[i], null, null, null, null);
+                  cursor.moveToFirst();
+                  cursor.close();
+                  break;
+               default:
+                  database.delete("movies", "_id=" + rowIDs[i], null);
+                  break;
+            }
+
+            if (!shared)
+               database.close(); // what every write used to pay for
+
+            nanos[operation] += System.nanoTime() - start;
+         }
+      }
+
+      if (sharedDatabase != null)
+         sharedDatabase.close();
+
+      appendResult(strategy, nanos, report);
+   } // end method measure
+   
+   // times each operation type with statements compiled once and bound 
+   // for every call, as DatabaseConnector now issues them
+   private void measureStatements(SQLiteDatabase database, long[] rowIDs, 
+      long[] nanos)
+   {
+      SQLiteStatement[] statements = { 
+         database.compileStatement(INSERT_SQL), 
+         database.compileStatement(UPDATE_SQL), 
+         database.compileStatement(QUERY_SQL), 
+         database.compileStatement(DELETE_SQL) };
+
+      for (int operation = 0; operation < nanos.length; ++operation)
+      {
+         SQLiteStatement statement = statements[operation];
+         
+         for (int i = 0; i < operations; ++i)
+         {
+            long start = System.nanoTime();
+            statement.clearBindings();
+
+            switch (operation)
+            {
+               case 0:
+                  bindMovie(statement, i);
+                  rowIDs[i] = statement.executeInsert();
+                  break;
+               case 1:
+                  bindMovie(statement, i + operations);
+                  statement.bindLong(8, rowIDs[i]);
+                  statement.executeUpdateDelete();
+                  break;
+               case 2:
+                  statement.bindLong(1, rowIDs[i]);
+                  statement.simpleQueryForString();
+                  break;
+               default:
+                  statement.bindLong(1, rowIDs[i]);
+                  statement.executeUpdateDelete();
+                  break;
+            }
+
+            nanos[operation] += System.nanoTime() - start;
+         }
+         
+         statement.close();
+      }
+   } // end method measureStatements
+   
+   // appends a strategy's mean latencies to report
+   private void appendResult(int strategy, long[] nanos, 
+      StringBuilder report)
+   {
+      String[] names = { "open/close per call", "shared WAL connection", 
+         "bound statements" };
+      report.append(String.format(Locale.US, "%-22s%10d%10d%10d%10d%n",
+         names[strategy], 
+         nanos[0] / 1000 / operations, nanos[1] / 1000 / operations,
+         nanos[2] / 1000 / operations, nanos[3] / 1000 / operations));
+   }
+
+   // opens the scratch database with or without write-ahead logging
+   private SQLiteDatabase openDatabase(boolean writeAheadLogging)
+   {
+      SQLiteDatabase database = context.openOrCreateDatabase(
+         BENCHMARK_DATABASE, Context.MODE_PRIVATE, null);
+
+      if (writeAheadLogging)
+         database.enableWriteAheadLogging();
+
+      if (database.getVersion() == 0)
+      {
+         database.execSQL(MovieSchema.CREATE_MOVIES_TABLE);
+         database.setVersion(1);
+      }
+
+      return database;
+   }
+
+   // binds a sample movie row to the first seven parameters
+   private static void bindMovie(SQLiteStatement statement, int i)
+   {
+      ContentValues movie = movie(i);
+      String[] columns = 
+         { "name", "director", "writer", "actor", "actress", "genre", "year" };
+      
+      for (int column = 0; column < columns.length; ++column)
+         statement.bindString(column + 1, movie.getAsString(columns[column]));
+   }
+
+   // builds a sample movie row
+   private static ContentValues movie(int i)
+   {
+      ContentValues movie = new ContentValues();
+      movie.put("name", "Movie " + i);
+      movie.put("director", "Director " + i % 100);
+      movie.put("writer", "Writer " + i % 200);
+      movie.put("actor", "Actor " + i % 500);
+      movie.put("actress", "Actress " + i % 500);
+      movie.put("genre", "Genre " + i % 20);
+      movie.put("year", String.valueOf(1950 + i % 70));
+      return movie;
+   }
+} // end class DatabaseBenchmark
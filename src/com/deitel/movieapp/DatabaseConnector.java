@@ -2,60 +2,265 @@
 // Provides easy connection and creation of UserContacts database.
 package com.deitel.movieapp;
 
-import android.content.ContentValues;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 
 public class DatabaseConnector 
 {
-   // database name
-   private static final String DATABASE_NAME = "UserMovies";
+   // the connection below is shared by every DatabaseConnector in the 
+   // process; it is opened on first use and stays open while any 
+   // connector still holds a reference, so one task's close() can no 
+   // longer pull the database out from under another task's Cursor
+   private static final Object connectionLock = new Object();
+   private static DatabaseOpenHelper databaseOpenHelper; // creates database
+   private static SQLiteDatabase sharedDatabase; // process-wide connection
+   private static int connectionReferences; // outstanding open() calls
+   private static long lastOpenMillis; // elapsedRealtime of last open()
+   private static CancellationSignal maintenanceSignal; // while it runs
+      
+   // compiled statements by SQL; each thread keeps its own, as a 
+   // statement's bindings cannot be shared, and the statements of one 
+   // connection are dropped when another replaces it
+   private static class StatementCache
+   {
+      SQLiteDatabase database;
+      final Map<String, SQLiteStatement> statements = 
+         new HashMap<String, SQLiteStatement>();
+   }
+   
+   // a bulk delete of more movies than this publishes one RESET rather
+   // than a change per movie
+   private static final int MAX_ROW_CHANGES = 500;
+   
+   private static final ThreadLocal<StatementCache> statementCaches =
+      new ThreadLocal<StatementCache>()
+      {
+         @Override
+         protected StatementCache initialValue()
+         {
+            return new StatementCache();
+         }
+      };
       
    private SQLiteDatabase database; // for interacting with the database
-   private DatabaseOpenHelper databaseOpenHelper; // creates the database
+   private int references; // open() calls not yet matched by close()
+   
+   // a movie's writes, run with this connector's compiled statements
+   private final MovieWrites<RuntimeException> writes = 
+      new MovieWrites<RuntimeException>()
+      {
+         @Override
+         protected long queryLong(String sql, Object... args)
+         {
+            return DatabaseConnector.this.queryLong(sql, args);
+         }
+         
+         @Override
+         protected long[] queryLongs(String sql, Object... args)
+         {
+            String[] values = new String[args.length];
+            
+            for (int i = 0; i < args.length; ++i)
+               values[i] = String.valueOf(args[i]);
+            
+            Cursor cursor = database.rawQuery(sql, values);
+            long[] longs = new long[cursor.getCount()];
+            
+            for (int i = 0; cursor.moveToNext(); ++i)
+               longs[i] = cursor.getLong(0);
+            
+            cursor.close();
+            return longs;
+         }
+         
+         @Override
+         protected String queryString(String sql, Object... args)
+         {
+            try
+            {
+               return statement(sql, args).simpleQueryForString();
+            }
+            catch (SQLiteDoneException e)
+            {
+               return null; // no rows
+            }
+         }
+         
+         @Override
+         protected long executeInsert(String sql, Object... args)
+         {
+            return DatabaseConnector.this.executeInsert(sql, args);
+         }
+         
+         @Override
+         protected int executeUpdateDelete(String sql, Object... args)
+         {
+            return DatabaseConnector.this.executeUpdateDelete(sql, args);
+         }
+      }; // end MovieWrites writes
 
    // public constructor for DatabaseConnector
    public DatabaseConnector(Context context) 
    {
-      // create a new DatabaseOpenHelper
-      databaseOpenHelper = 
-         new DatabaseOpenHelper(context, DATABASE_NAME, null, 1);
+      synchronized (connectionLock)
+      {
+         // create the process-wide DatabaseOpenHelper on first use; the 
+         // application Context keeps it from leaking an Activity
+         if (databaseOpenHelper == null)
+            databaseOpenHelper = new DatabaseOpenHelper(
+               context.getApplicationContext(), MovieSchema.DATABASE_NAME, 
+               null, MovieSchema.DATABASE_VERSION);
+      }
    }
 
    // open the database connection
    public void open() throws SQLException 
    {
-      // create or open a database for reading/writing
-      database = databaseOpenHelper.getWritableDatabase();
+      synchronized (connectionLock)
+      {
+         // any other use of the database stops running maintenance
+         if (maintenanceSignal != null)
+            maintenanceSignal.cancel();
+         
+         lastOpenMillis = SystemClock.elapsedRealtime();
+         openShared();
+      }
+      
+      DatabaseMetrics.countOpen();
+   }
+   
+   // opens the connection for DatabaseMaintenance if no connector is 
+   // open or has been opened for idleMillis and returns true; until 
+   // closeMaintenance, the next open() cancels signal
+   boolean openForMaintenance(CancellationSignal signal, long idleMillis)
+   {
+      synchronized (connectionLock)
+      {
+         // a long import, backup or migration holds its connector open
+         if (connectionReferences > 0 || 
+            SystemClock.elapsedRealtime() - lastOpenMillis < idleMillis)
+            return false;
+         
+         openShared();
+         maintenanceSignal = signal;
+      }
+      
+      DatabaseMetrics.countOpen();
+      return true;
+   }
+   
+   // release the connection opened by openForMaintenance
+   void closeMaintenance()
+   {
+      synchronized (connectionLock)
+      {
+         maintenanceSignal = null;
+      }
+      
+      close();
+   }
+   
+   // take a reference to the shared connection; connectionLock is held
+   private void openShared()
+   {
+      // create or open the shared database for reading/writing
+      if (sharedDatabase == null || !sharedDatabase.isOpen())
+      {
+         sharedDatabase = databaseOpenHelper.getWritableDatabase();
+         DatabaseMetrics.countConnect();
+      }
+      
+      ++connectionReferences;
+      ++references;
+      database = sharedDatabase;
    }
 
-   // close the database connection
+   // release this connector's reference to the database connection
    public void close() 
    {
-      if (database != null)
-         database.close(); // close the database connection
+      synchronized (connectionLock)
+      {
+         if (references == 0)
+            return; // nothing to release
+
+         --references;
+         --connectionReferences;
+         
+         if (references == 0)
+            database = null;
+      }
+      
+      DatabaseMetrics.countClose();
    } 
 
+   // closes the shared connection if no connector is using it; returns
+   // false if the database is still in use
+   public static boolean closeIfIdle()
+   {
+      synchronized (connectionLock)
+      {
+         if (connectionReferences > 0)
+            return false;
+
+         if (sharedDatabase != null)
+         {
+            sharedDatabase.close(); // close the database connection
+            sharedDatabase = null;
+            DatabaseMetrics.countDisconnect();
+         }
+         
+         return true;
+      }
+   }
+
+   // return the shared database; valid between open() and close()
+   SQLiteDatabase getDatabase()
+   {
+      return database;
+   }
+
    // inserts a new contact in the database
    public long insertMovie(String name, String director, String writer,  
       String actor, String actress, String genre, String year) 
    {
-      ContentValues newMovie = new ContentValues();
-      newMovie.put("name", name);
-      newMovie.put("director", director);
-      newMovie.put("writer", writer);
-      newMovie.put("actor", actor);
-      newMovie.put("actress", actress);
-      newMovie.put("genre", genre);
-      newMovie.put("year", year);
+      String[] people = { director, writer, actor, actress }; // by role
 
+      long start = DatabaseMetrics.start();
       open(); // open the database
-      long rowID = database.insert("movies", null, newMovie);
-      close(); // close the database
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      long rowID = -1;
+
+      try
+      {
+         rowID = writes.insertMovie(name, people, genre, year);
+         database.setTransactionSuccessful();
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+         DatabaseMetrics.record(
+            DatabaseMetrics.INSERT, start, rowID != -1 ? 1 : 0);
+         MovieChanges.endWrite(rowID != -1 ? MovieChanges.INSERTED : 
+            MovieChanges.RESET, rowID, null, name);
+      }
+      
       return rowID;
    } 
 
@@ -63,68 +268,752 @@ public class DatabaseConnector
    public void updateMovie(long id, String name, String director, 
       String writer, String actor, String actress, String genre, String year) 
    {
-      ContentValues editMovie = new ContentValues();
-      editMovie.put("name", name);
-      editMovie.put("director", director);
-      editMovie.put("writer", writer);
-      editMovie.put("actor", actor);
-      editMovie.put("actress", actress);
-      editMovie.put("genre", genre);
-      editMovie.put("year", year);
+      String[] people = { director, writer, actor, actress }; // by role
 
+      long start = DatabaseMetrics.start();
       open(); // open the database
-      database.update("movies", editMovie, "_id=" + id, null);
-      close(); // close the database
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      String oldName = null;
+      boolean updated = false;
+
+      try
+      {
+         oldName = writes.queryName(id);
+         int rows = writes.updateMovie(id, name, people, genre, year);
+         updated = rows > 0; // else the list may hold a stale row; reload
+         database.setTransactionSuccessful();
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+         MovieCache.invalidate(id); // once readers can see the change
+         DatabaseMetrics.record(
+            DatabaseMetrics.UPDATE, start, updated ? 1 : 0);
+         MovieChanges.endWrite(updated ? MovieChanges.UPDATED : 
+            MovieChanges.RESET, id, oldName, name);
+      }
    } // end method updateMovie
 
+   // records the file name of a movie's poster, or null for none; the 
+   // movie is published as updated so lists show the new poster
+   public void setPoster(long id, String fileName)
+   {
+      long start = DatabaseMetrics.start();
+      open(); // open the database
+      MovieChanges.beginWrite();
+      String name = null;
+      boolean updated = false;
+
+      try
+      {
+         name = writes.queryName(id);
+         updated = 
+            executeUpdateDelete(MovieQueries.UPDATE_POSTER, fileName, id) > 0;
+      }
+      finally
+      {
+         close(); // close the database
+         DatabaseMetrics.record(
+            DatabaseMetrics.SET_POSTER, start, updated ? 1 : 0);
+         MovieChanges.endWrite(updated ? MovieChanges.UPDATED : 
+            MovieChanges.RESET, id, name, name);
+      }
+   } // end method setPoster
+
+   // return the rowID of a movie other than excludeID whose name and year
+   // match these once normalized by MovieKeys, or -1 if there is none
+   public long findDuplicate(String name, String year, long excludeID)
+   {
+      long start = DatabaseMetrics.start();
+      long matchHash = MovieKeys.matchHash(name, year);
+      long duplicateID = -1;
+      
+      // almost always no movie has the hash, which the index answers 
+      // without reading a row
+      if (queryLong(MovieQueries.COUNT_MATCHES, matchHash) > 0)
+      {
+         String matchKey = MovieKeys.matchKey(name, year);
+         Cursor cursor = database.rawQuery(MovieQueries.SELECT_MATCHES, 
+            new String[] { String.valueOf(matchHash) });
+         
+         try
+         {
+            while (duplicateID == -1 && cursor.moveToNext())
+            {
+               if (cursor.getLong(0) != excludeID && matchKey.equals(
+                  MovieKeys.matchKey(cursor.getString(1), 
+                  cursor.getString(2))))
+                  duplicateID = cursor.getLong(0);
+            }
+         }
+         finally
+         {
+            cursor.close();
+         }
+      }
+      
+      DatabaseMetrics.record(DatabaseMetrics.FIND_DUPLICATE, start, 
+         duplicateID != -1 ? 1 : 0);
+      return duplicateID;
+   } // end method findDuplicate
+   
+   // return (_id, name, year, match_hash) rows of every movie sharing its
+   // match hash with another, ordered by match_hash then _id; 
+   // cancellationSignal aborts a scan no longer wanted
+   public Cursor getDuplicates(CancellationSignal cancellationSignal)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_DUPLICATES, start, 
+         database.rawQuery(MovieQueries.SELECT_DUPLICATES, null, 
+         cancellationSignal));
+   }
+   
+   // return (poster) rows naming every movie's poster file
+   public Cursor getPosters()
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_POSTERS, start, 
+         database.rawQuery(
+         "SELECT poster FROM movies WHERE poster IS NOT NULL", null));
+   }
+
    // return a Cursor with all contact names in the database
    public Cursor getAllMovies() 
    {
-      return database.query("movies", new String[] {"_id", "name"}, 
-         null, null, null, null, "name");
+      // sorted to match the movies_title_list index, so no sort step is needed
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_ALL, start, 
+         database.rawQuery(MovieQueries.SELECT_ALL_MOVIES, null));
    } 
 
+   // return the number of movies in the database
+   public int getMovieCount()
+   {
+      long start = DatabaseMetrics.start();
+      int count = (int) queryLong("SELECT COUNT(*) FROM movies");
+      DatabaseMetrics.record(DatabaseMetrics.GET_COUNT, start, 1);
+      return count;
+   }
+   
+   // return (initial, count) rows giving how many movie names start with 
+   // each character, lowercased as COLLATE NOCASE compares it
+   public Cursor getNameInitials()
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_INITIALS, start, 
+         database.rawQuery("SELECT lower(substr(name, 1, 1)), " +
+         "COUNT(*) FROM movies GROUP BY 1", null));
+   }
+   
+   // return up to limit (_id, name) rows that sort after the given row; 
+   // seeking the movies_title_list index avoids scanning skipped rows
+   public Cursor getMoviesAfter(String name, long id, int limit)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_PAGE, start, 
+         database.rawQuery("SELECT _id, name FROM movies " +
+         "WHERE name >= ?1 COLLATE NOCASE " +
+         "AND (name > ?1 COLLATE NOCASE OR _id > ?2) " +
+         "ORDER BY name COLLATE NOCASE, _id LIMIT ?3", 
+         new String[] { name, String.valueOf(id), String.valueOf(limit) }));
+   }
+   
+   // return up to limit (_id, name) rows that sort before the given row,
+   // nearest first
+   public Cursor getMoviesBefore(String name, long id, int limit)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_PAGE, start, 
+         database.rawQuery("SELECT _id, name FROM movies " +
+         "WHERE name <= ?1 COLLATE NOCASE " +
+         "AND (name < ?1 COLLATE NOCASE OR _id < ?2) " +
+         "ORDER BY name COLLATE NOCASE DESC, _id DESC LIMIT ?3", 
+         new String[] { name, String.valueOf(id), String.valueOf(limit) }));
+   }
+   
+   // return up to limit (_id, name) rows starting at the given position;
+   // only used when no neighboring row is known to seek from
+   public Cursor getMoviesAt(int offset, int limit)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_PAGE, start, 
+         database.rawQuery("SELECT _id, name FROM movies " +
+         "ORDER BY name COLLATE NOCASE, _id LIMIT ? OFFSET ?", 
+         new String[] { String.valueOf(limit), String.valueOf(offset) }));
+   }
+
+   // return the number of movies listed in mode; a lone genre or director
+   // filter is counted by the statistics tables once migrations are done
+   public int getMovieCount(MovieListMode mode)
+   {
+      if (!mode.isFiltered())
+         return getMovieCount();
+      
+      long start = DatabaseMetrics.start();
+      List<String> conditions = new ArrayList<String>();
+      List<String> args = new ArrayList<String>();
+      mode.addFilters(conditions, args);
+      String sql;
+      
+      if (mode.decade == null && (mode.genre == null) != 
+         (mode.director == null) && !SchemaMigrations.hasPending(database))
+         sql = mode.genre != null ? 
+            "SELECT movies FROM genre_counts WHERE genre=?" : 
+            "SELECT d.movies FROM director_counts d " + 
+            "JOIN people p ON p._id=d.person_id WHERE p.name=?";
+      else
+         sql = "SELECT COUNT(*) FROM movies" + where(conditions);
+      
+      int count = (int) Math.max(0, queryLong(sql, args.toArray()));
+      DatabaseMetrics.record(DatabaseMetrics.GET_COUNT, start, 1);
+      return count;
+   } // end method getMovieCount
+   
+   // return up to limit (_id, name, sort key) rows of the list in mode 
+   // that follow the row (key, id), or precede it if before is true, 
+   // nearest first; title order without filters uses its own queries
+   public Cursor getMoviesNear(MovieListMode mode, boolean before, 
+      String key, long id, int limit)
+   {
+      if (mode.isDefault())
+         return before ? getMoviesBefore(key, id, limit) : 
+            getMoviesAfter(key, id, limit);
+      
+      long start = DatabaseMetrics.start();
+      List<String> args = new ArrayList<String>();
+      Cursor cursor = queryList(mode, mode.seek(before, key, id, args), 
+         args, before, limit, 0);
+      
+      // NULL sort values come first, so the rows after a NULL key go on 
+      // with the other values and the rows before any other key go on
+      // with the NULLs; each part is a range of the sort index
+      int missing = limit - cursor.getCount();
+      
+      if (missing > 0 && mode.hasNullKeys() && (key == null) != before)
+      {
+         Cursor rest = queryList(mode, mode.nullKeys(key != null), 
+            new ArrayList<String>(), before, missing, 0);
+         cursor = new MergeCursor(new Cursor[] { cursor, rest });
+      }
+      
+      return measured(DatabaseMetrics.GET_PAGE, start, cursor);
+   } // end method getMoviesNear
+   
+   // return up to limit (_id, name, sort key) rows of the list in mode 
+   // starting at the given position
+   public Cursor getMoviesAt(MovieListMode mode, int offset, int limit)
+   {
+      if (mode.isDefault())
+         return getMoviesAt(offset, limit);
+      
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_PAGE, start, queryList(mode, 
+         null, new ArrayList<String>(), false, limit, offset));
+   }
+   
+   // run the list query of mode with an extra condition (whose values 
+   // are in args) in list order or reversed; ordering by the mode's sort
+   // index, and filtering within it, never needs a temporary B-tree
+   private Cursor queryList(MovieListMode mode, String condition, 
+      List<String> args, boolean reversed, int limit, int offset)
+   {
+      List<String> conditions = new ArrayList<String>();
+      
+      if (condition != null)
+         conditions.add(condition);
+      
+      mode.addFilters(conditions, args);
+      args.add(String.valueOf(limit));
+      args.add(String.valueOf(offset));
+      return database.rawQuery("SELECT _id, name, " + mode.keyColumn() + 
+         " FROM movies" + where(conditions) + " ORDER BY " + 
+         mode.orderBy(reversed) + " LIMIT ? OFFSET ?", 
+         args.toArray(new String[args.size()]));
+   }
+   
+   // return a WHERE clause requiring every condition, or ""
+   private static String where(List<String> conditions)
+   {
+      StringBuilder where = new StringBuilder();
+      
+      for (String condition : conditions)
+         where.append(where.length() == 0 ? " WHERE (" : " AND (")
+            .append(condition).append(')');
+      
+      return where.toString();
+   }
+
    // return a Cursor containing specified contact's information 
    public Cursor getOneMovie(long id) 
    {
-      return database.query(
-         "movies", null, "_id=" + id, null, null, null, null);
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_ONE, start, database.rawQuery(
+         MovieQueries.SELECT_MOVIE, new String[] { String.valueOf(id) }));
    } 
+   
+   // return the specified movie's details from MovieCache, reading and 
+   // caching them on a miss; returns null if there is no such movie
+   public Movie getMovie(long id)
+   {
+      Movie movie = MovieCache.get(id);
+      
+      if (movie != null)
+         return movie;
+      
+      long generation = MovieCache.getGeneration();
+      Cursor cursor = getOneMovie(id);
+      
+      try
+      {
+         if (!cursor.moveToFirst())
+            return null;
+         
+         movie = new Movie(cursor);
+      }
+      finally
+      {
+         cursor.close();
+      }
+      
+      MovieCache.put(movie, generation);
+      return movie;
+   } // end method getMovie
+   
+   // read the details of the first count movies in ids into MovieCache 
+   // with one query per MovieQueries.BATCH_IDS, so opening any of them 
+   // needs no query; returns the number of movies read
+   public int cacheMovies(long[] ids, int count)
+   {
+      long generation = MovieCache.getGeneration();
+      String[] args = new String[MovieQueries.BATCH_IDS];
+      int read = 0;
+      
+      for (int first = 0; first < count; first += args.length)
+      {
+         // a short batch repeats its last rowID in the unused arguments
+         for (int i = 0; i < args.length; ++i)
+            args[i] = String.valueOf(ids[Math.min(first + i, count - 1)]);
+         
+         long start = DatabaseMetrics.start();
+         Cursor cursor = measured(DatabaseMetrics.CACHE_MOVIES, start, 
+            database.rawQuery(MovieQueries.SELECT_MOVIE_BATCH, args));
+         
+         try
+         {
+            while (cursor.moveToNext())
+            {
+               MovieCache.put(new Movie(cursor), generation);
+               ++read;
+            }
+         }
+         finally
+         {
+            cursor.close();
+         }
+      }
+      
+      return read;
+   } // end method cacheMovies
+   
+   // return up to limit movies with their credits, as getOneMovie does,
+   // and posters, in _id order starting after afterID; reading a large
+   // table this way keeps each Cursor small
+   public Cursor getMoviesFrom(long afterID, int limit)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_FROM, start, 
+         database.rawQuery("SELECT " + MovieQueries.MOVIE_COLUMNS + 
+         ", poster FROM movies WHERE _id>? ORDER BY _id LIMIT ?", 
+         new String[] { String.valueOf(afterID), String.valueOf(limit) }));
+   }
+   
+   // remove every movie, person and credit, e.g. before a restore
+   public void deleteAllMovies()
+   {
+      long start = DatabaseMetrics.start();
+      open(); // open the database
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      int movies = 0;
+
+      try
+      {
+         movies = executeUpdateDelete("DELETE FROM movies");
+         
+         for (String table : 
+            new String[] { "credits", "people", "movies_fts" })
+            database.execSQL("DELETE FROM " + table);
+         
+         database.setTransactionSuccessful();
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+         DatabaseMetrics.record(DatabaseMetrics.DELETE_ALL, start, movies);
+         MovieCache.invalidateAll();
+         MovieChanges.endWrite(MovieChanges.RESET, -1, null, null);
+      }
+   } // end method deleteAllMovies
+
+   // return (_id, name) rows of the movies crediting the named person in
+   // any role, sorted by name; people and credits indexes serve the lookup
+   public Cursor getMoviesWithPerson(String person)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_WITH_PERSON, start, 
+         database.rawQuery("SELECT DISTINCT m._id, m.name " +
+         "FROM people p JOIN credits c ON c.person_id=p._id " +
+         "JOIN movies m ON m._id=c.movie_id WHERE p.name=? " +
+         "ORDER BY m.name COLLATE NOCASE", new String[] { person.trim() }));
+   }
+
+   // return (genre, movies) rows, most common genre first, from the 
+   // counts the statistics triggers maintain
+   public Cursor getGenreCounts()
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_STATISTICS, start, 
+         database.rawQuery("SELECT genre, movies FROM genre_counts " +
+         "ORDER BY movies DESC, genre", null));
+   }
+   
+   // return (decade, movies) rows in decade order; -1 counts movies 
+   // without a year
+   public Cursor getDecadeCounts()
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_STATISTICS, start, 
+         database.rawQuery("SELECT decade, movies FROM decade_counts " +
+         "ORDER BY decade", null));
+   }
+   
+   // return (name, movies) rows of the limit directors of most movies;
+   // the director_counts_movies index serves the ordering
+   public Cursor getTopDirectors(int limit)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_STATISTICS, start, 
+         database.rawQuery("SELECT p.name, d.movies FROM director_counts d " +
+         "JOIN people p ON p._id=d.person_id " +
+         "ORDER BY d.movies DESC LIMIT ?", 
+         new String[] { String.valueOf(limit) }));
+   }
+   
+   // return (name, movies) rows of every director, by name; people is 
+   // read in the order of its name index
+   public Cursor getDirectors()
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.GET_STATISTICS, start, 
+         database.rawQuery("SELECT p.name, d.movies FROM people p " +
+         "JOIN director_counts d ON d.person_id=p._id " +
+         "ORDER BY p.name COLLATE NOCASE", null));
+   }
+   
+   // recount the statistics tables from movies and credits, repairing
+   // any drift from the triggers
+   public void rebuildStatistics()
+   {
+      open(); // open the database
+      database.beginTransaction();
+
+      try
+      {
+         for (String sql : MovieSchema.REBUILD_STATISTICS)
+            database.execSQL(sql);
+         
+         database.setTransactionSuccessful();
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+      }
+   } // end method rebuildStatistics
 
    // delete the contact specified by the given String name
    public void deleteMovie(long id) 
    {
+      long start = DatabaseMetrics.start();
       open(); // open the database
-      database.delete("movies", "_id=" + id, null);
-      close(); // close the database
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      String oldName = null;
+      boolean deleted = false;
+
+      try
+      {
+         oldName = writes.queryName(id);
+         int rows = writes.deleteMovie(id);
+         database.setTransactionSuccessful();
+         deleted = rows > 0;
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+         MovieCache.invalidate(id);
+         DatabaseMetrics.record(
+            DatabaseMetrics.DELETE, start, deleted ? 1 : 0);
+         MovieChanges.endWrite(deleted ? MovieChanges.DELETED : 
+            MovieChanges.RESET, id, oldName, null);
+      }
    } 
    
-   private class DatabaseOpenHelper extends SQLiteOpenHelper 
+   // delete the movies with the given rowIDs in one transaction, binding
+   // each rowID to the same compiled statements, so any number can be 
+   // deleted without a long parameter list; returns the number deleted
+   public int deleteMovies(long[] ids) 
    {
+      boolean eachRow = ids.length <= MAX_ROW_CHANGES;
+      long start = DatabaseMetrics.start();
+      open(); // open the database
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      int deleted = 0;
+      boolean committed = false;
+
+      try
+      {
+         for (long id : ids)
+         {
+            String oldName = eachRow ? writes.queryName(id) : null;
+            
+            if (writes.deleteMovie(id) == 0)
+               continue; // already deleted
+            
+            ++deleted;
+            
+            if (eachRow) // published with the rest once committed
+            {
+               MovieChanges.beginWrite();
+               MovieChanges.endWrite(
+                  MovieChanges.DELETED, id, oldName, null);
+            }
+         }
+         
+         database.setTransactionSuccessful();
+         committed = true;
+      }
+      finally
+      {
+         database.endTransaction();
+         close(); // close the database
+         MovieCache.invalidateAll();
+         DatabaseMetrics.record(DatabaseMetrics.DELETE_MANY, start, 
+            committed ? deleted : 0);
+         
+         // too many rows for the list to apply one by one
+         if (!eachRow && committed)
+         {
+            MovieChanges.beginWrite();
+            MovieChanges.endWrite(MovieChanges.RESET, -1, null, null);
+         }
+         
+         MovieChanges.endBatch(committed);
+      }
+      
+      return deleted;
+   } // end method deleteMovies
+   
+   // return (_id, name) rows of the movies in which every word of query 
+   // prefixes a word of the name, director, writer, actor, actress or
+   // genre, sorted by name then _id as the title list is; limit keeps the
+   // first limit of them in that order, so the results begin where the 
+   // full list of matches would. cancellationSignal aborts a stale search
+   public Cursor searchMovies(String query, int limit, 
+      CancellationSignal cancellationSignal)
+   {
+      long start = DatabaseMetrics.start();
+      return measured(DatabaseMetrics.SEARCH, start, database.rawQuery(
+         "SELECT _id, name FROM movies WHERE _id IN " +
+         "(SELECT docid FROM movies_fts WHERE movies_fts MATCH ?) " +
+         "ORDER BY name COLLATE NOCASE, _id LIMIT ?", 
+         new String[] { matchExpression(query), String.valueOf(limit) }, 
+         cancellationSignal));
+   }
+   
+   // turns typed text into an FTS query matching each word as a prefix,
+   // e.g. "star wa" becomes "star* wa*"; returns null if there are no words
+   static String matchExpression(String query)
+   {
+      if (query == null)
+         return null;
+      
+      StringBuilder expression = new StringBuilder();
+      
+      for (String word : query.split("[^\\p{L}\\p{N}]+"))
+      {
+         if (word.length() > 0)
+            expression.append(word).append("* ");
+      }
+      
+      return expression.length() > 0 ? expression.toString().trim() : null;
+   }
+   
+   // returns the first column of the query's first row, or -1 if no rows
+   private long queryLong(String sql, Object... args)
+   {
+      try
+      {
+         return statement(sql, args).simpleQueryForLong();
+      }
+      catch (SQLiteDoneException e)
+      {
+         return -1;
+      }
+   }
+   
+   // executes an INSERT and returns the new rowID, or -1 if none
+   private long executeInsert(String sql, Object... args)
+   {
+      return statement(sql, args).executeInsert();
+   }
+   
+   // executes an UPDATE or DELETE and returns the number of rows changed
+   private int executeUpdateDelete(String sql, Object... args)
+   {
+      return statement(sql, args).executeUpdateDelete();
+   }
+   
+   // returns this thread's compiled statement for sql, compiling it on 
+   // first use, with args bound in order
+   private SQLiteStatement statement(String sql, Object... args)
+   {
+      StatementCache cache = statementCaches.get();
+      
+      if (cache.database != database) // connection closed and reopened
+      {
+         for (SQLiteStatement statement : cache.statements.values())
+            statement.close();
+         
+         cache.statements.clear();
+         cache.database = database;
+      }
+      
+      SQLiteStatement statement = cache.statements.get(sql);
+      
+      if (statement == null)
+      {
+         statement = database.compileStatement(sql);
+         cache.statements.put(sql, statement);
+      }
+      
+      statement.clearBindings();
+      
+      for (int i = 0; i < args.length; ++i)
+         DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+      
+      return statement;
+   } // end method statement
+   
+   // moves the pre-version 4 person columns of movies firstRowID through 
+   // lastRowID into people and credits; used by the version 4 migration 
+   // and by MovieImporter, which inserts people this way in bulk
+   static void moveLegacyCredits(SQLiteDatabase db, long firstRowID, 
+      long lastRowID)
+   {
+      Object[] range = new Object[] { firstRowID, lastRowID };
+      
+      for (int role = 0; role < MovieSchema.PERSON_COLUMNS.length; ++role)
+      {
+         String column = MovieSchema.PERSON_COLUMNS[role];
+         db.execSQL("INSERT OR IGNORE INTO people (name) SELECT trim(" + 
+            column + ") FROM movies WHERE _id BETWEEN ? AND ? AND trim(" + 
+            column + ")<>''", range);
+         db.execSQL("INSERT OR REPLACE INTO credits " +
+            "(movie_id, role, person_id) SELECT m._id, " + role + ", p._id " +
+            "FROM movies m JOIN people p ON p.name=trim(m." + column + ") " +
+            "WHERE m._id BETWEEN ? AND ?", range);
+      }
+      
+      db.execSQL("UPDATE movies SET director=NULL, writer=NULL, " +
+         "actor=NULL, actress=NULL WHERE _id BETWEEN ? AND ? AND " +
+         "(director IS NOT NULL OR writer IS NOT NULL OR " +
+         "actor IS NOT NULL OR actress IS NOT NULL)", range);
+   } // end method moveLegacyCredits
+   
+   // runs cursor's query now while metrics are on, so the time recorded 
+   // covers the read itself rather than only compiling the statement
+   private static Cursor measured(int operation, long start, Cursor cursor)
+   {
+      if (start != 0)
+         DatabaseMetrics.record(operation, start, cursor.getCount());
+      
+      return cursor;
+   }
+   
+   private static class DatabaseOpenHelper extends SQLiteOpenHelper 
+   {
+      private static final int MAX_SQL_CACHE_SIZE = 64;
+      
+      private final Context context; // for background migrations
+      
       // constructor
       public DatabaseOpenHelper(Context context, String name,
          CursorFactory factory, int version) 
       {
          super(context, name, factory, version);
+         this.context = context;
+         
+         // write-ahead logging lets list and detail reads proceed while 
+         // AddEditFragment's writes are being committed
+         setWriteAheadLoggingEnabled(true);
+      }
+
+      // each connection keeps this many statements prepared; the default
+      // of 25 is fewer than the connector, search and list together use
+      @Override
+      public void onConfigure(SQLiteDatabase db)
+      {
+         db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+         
+         // a new database can return free pages a few at a time; an 
+         // older one switches when DatabaseMaintenance next vacuums it
+         db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
       }
 
-      // creates the contacts table when the database is created
+      // creates the current schema when the database is created
       @Override
       public void onCreate(SQLiteDatabase db) 
       {
-         // query to create a new table named contacts
-         String createQuery = "CREATE TABLE movies" +
-            "(_id integer primary key autoincrement," +
-            "name TEXT, director TEXT, writer TEXT, " +
-            "actor TEXT, actress TEXT, genre TEXT, year TEXT);";
-                  
-         db.execSQL(createQuery); // execute query to create the database
+         // execute queries to create the tables and indexes
+         for (String sql : MovieSchema.CREATE_TABLES)
+            db.execSQL(sql);
+         
+         for (String sql : MovieSchema.CREATE_STATISTICS_TABLES)
+            db.execSQL(sql);
+         
+         for (String sql : MovieSchema.CREATE_STATISTICS_TRIGGERS)
+            db.execSQL(sql);
+         
+         for (String sql : MovieSchema.CREATE_SORT_DIRECTOR_TRIGGERS)
+            db.execSQL(sql);
+         
+         for (String sql : MovieSchema.CREATE_MOVIES_INDEXES)
+            db.execSQL(sql);
+         
+         db.execSQL(MovieSchema.CREATE_MATCH_HASH_INDEX);
       } 
 
+      // migrates an older database one schema version at a time
       @Override
       public void onUpgrade(SQLiteDatabase db, int oldVersion, 
           int newVersion) 
       {
+         SchemaMigrations.upgrade(db, oldVersion, newVersion);
+      }
+      
+      // finishes deferred migration work and checks the indexes once the
+      // database is open, off the path of the query that opened it
+      @Override
+      public void onOpen(SQLiteDatabase db)
+      {
+         super.onOpen(db);
+         SchemaMigrations.resumeInBackground(context);
       }
    } // end class DatabaseOpenHelper
 } // end class DatabaseConnector
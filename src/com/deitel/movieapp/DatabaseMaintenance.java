@@ -0,0 +1,492 @@
+// DatabaseMaintenance.java
+// Checks, analyzes, vacuums and checkpoints UserMovies while the app is
+// idle, one short step at a time
+package com.deitel.movieapp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class DatabaseMaintenance
+{
+   private static final String TAG = "DatabaseMaintenance";
+
+   // when each kind of maintenance last finished
+   private static final String PREFERENCES = "database_maintenance";
+   private static final String LAST_RUN = "last_run";
+   private static final String LAST_INTEGRITY_CHECK = "last_integrity_check";
+   private static final String ANALYZED_MOVIES = "analyzed_movies";
+
+   // no connector may be open, or have been opened for this long, before
+   // a step runs
+   private static final long IDLE_MILLIS = 60 * 1000;
+
+   private static final long STEP_PAUSE_MILLIS = 50; // between steps
+   private static final long RUN_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+   private static final long INTEGRITY_INTERVAL_MILLIS =
+      7 * RUN_INTERVAL_MILLIS;
+
+   private static final int MAX_INTEGRITY_ERRORS = 10; // reported
+   private static final int VACUUM_PAGES = 256; // freed per step
+
+   // statistics are refreshed once the movie count changes by 1/10th
+   private static final int ANALYZE_CHANGE_FRACTION = 10;
+
+   // a database made before incremental vacuum is rebuilt, once, when
+   // this much of it is free
+   private static final long REBUILD_FREE_BYTES = 1024 * 1024;
+
+   // one kind of maintenance; long ones are done over several calls to
+   // run, each short enough to finish before the app needs the database
+   private abstract static class Step
+   {
+      final String name;
+      long millis; // spent in run
+      long bytesReclaimed;
+      String detail = "";
+
+      Step(String name)
+      {
+         this.name = name;
+      }
+
+      // does the next part of the step and returns true once it is done;
+      // queries given signal stop when the app opens the database
+      abstract boolean run(SQLiteDatabase db, CancellationSignal signal);
+   } // end class Step
+
+   private static DatabaseMaintenance instance; // process-wide scheduler
+
+   private final Context context; // for each step's DatabaseConnector
+   private final SharedPreferences preferences;
+   private final File databaseFile;
+   private final Handler handler; // runs steps on the maintenance thread
+   private final Object lock = new Object();
+   private final List<String> results = // of the last run, by step
+      new ArrayList<String>();
+   private volatile boolean forced; // run even if one is not due
+   private volatile boolean running; // a run has steps left
+
+   // the current run's steps; used only on the maintenance thread
+   private List<Step> steps;
+   private int stepIndex;
+
+   private final Runnable runStep = new Runnable()
+   {
+      @Override
+      public void run()
+      {
+         runStep();
+      }
+   };
+
+   // return the process-wide DatabaseMaintenance
+   public static synchronized DatabaseMaintenance getInstance(
+      Context context)
+   {
+      if (instance == null)
+         instance = new DatabaseMaintenance(context.getApplicationContext());
+
+      return instance;
+   }
+
+   // private constructor; use getInstance
+   private DatabaseMaintenance(Context context)
+   {
+      this.context = context;
+      preferences =
+         context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+      databaseFile = context.getDatabasePath(MovieSchema.DATABASE_NAME);
+
+      HandlerThread thread =
+         new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+      thread.start();
+      handler = new Handler(thread.getLooper());
+   }
+
+   // start or resume a due run once the database has been idle, e.g.
+   // when the app leaves the screen
+   public void scheduleIdle()
+   {
+      if (!running && !isDue(LAST_RUN, RUN_INTERVAL_MILLIS))
+         return;
+
+      handler.removeCallbacks(runStep);
+      handler.postDelayed(runStep, IDLE_MILLIS);
+   }
+
+   // start a run, due or not, as soon as the database is idle
+   public void runNow()
+   {
+      forced = true;
+      handler.removeCallbacks(runStep);
+      handler.post(runStep);
+   }
+
+   // stop scheduling steps, e.g. when the app returns to the screen; a
+   // step already running stops when the app opens the database
+   public void stop()
+   {
+      handler.removeCallbacks(runStep);
+   }
+
+   // return when the last run finished and what each of its steps did
+   public String getReport()
+   {
+      long lastRun = preferences.getLong(LAST_RUN, 0);
+      StringBuilder report = new StringBuilder(String.format(
+         Locale.US, "database maintenance: last run %s%s%n",
+         lastRun == 0 ? "never" : new Date(lastRun).toString(),
+         running ? ", running" : ""));
+
+      synchronized (lock)
+      {
+         for (String result : results)
+            report.append("  ").append(result);
+      }
+
+      return report.toString();
+   }
+
+   // return true if the preference named key is over intervalMillis old
+   private boolean isDue(String key, long intervalMillis)
+   {
+      long elapsed = System.currentTimeMillis() - preferences.getLong(key, 0);
+      return elapsed < 0 || elapsed >= intervalMillis; // < 0: clock reset
+   }
+
+   // runs on the maintenance thread; does the next part of the current
+   // step if nothing else has used the database for IDLE_MILLIS, and
+   // otherwise tries again later
+   private void runStep()
+   {
+      if (steps == null)
+      {
+         if (!forced && !isDue(LAST_RUN, RUN_INTERVAL_MILLIS))
+            return;
+
+         forced = false;
+         running = true;
+         steps = createSteps();
+         stepIndex = 0;
+
+         synchronized (lock)
+         {
+            results.clear();
+         }
+      }
+
+      CancellationSignal signal = new CancellationSignal();
+      DatabaseConnector databaseConnector = new DatabaseConnector(context);
+
+      if (!databaseConnector.openForMaintenance(signal, IDLE_MILLIS))
+      {
+         handler.postDelayed(runStep, IDLE_MILLIS); // the app is busy
+         return;
+      }
+
+      Step step = steps.get(stepIndex);
+      boolean finished = false;
+      long start = SystemClock.elapsedRealtime();
+
+      try
+      {
+         // a migration copying rows in the background comes first
+         if (!SchemaMigrations.hasPending(databaseConnector.getDatabase()))
+            finished = step.run(databaseConnector.getDatabase(), signal);
+         else
+            signal.cancel();
+      }
+      catch (OperationCanceledException e)
+      {
+         // the app opened the database; this part is done again later
+      }
+      catch (SQLException e)
+      {
+         Log.w(TAG, step.name + " failed", e);
+         step.detail = "failed: " + e.getMessage();
+         finished = true;
+      }
+      finally
+      {
+         step.millis += SystemClock.elapsedRealtime() - start;
+         databaseConnector.closeMaintenance();
+      }
+
+      if (finished)
+      {
+         String result = String.format(Locale.US, 
+            "%s: %d ms, %d KB reclaimed, %s%n", step.name, step.millis, 
+            step.bytesReclaimed / 1024, step.detail);
+         Log.i(TAG, result.trim());
+
+         synchronized (lock)
+         {
+            results.add(result);
+         }
+
+         if (++stepIndex == steps.size())
+         {
+            preferences.edit().putLong(
+               LAST_RUN, System.currentTimeMillis()).apply();
+            steps = null;
+            running = false;
+            
+            // the app has left the database idle; free the connection's 
+            // page cache until it is needed again
+            DatabaseConnector.closeIfIdle();
+            return;
+         }
+      }
+
+      handler.postDelayed(runStep,
+         signal.isCanceled() ? IDLE_MILLIS : STEP_PAUSE_MILLIS);
+   } // end method runStep
+
+   // return the steps of a run: reads come before the writes they might
+   // otherwise wait for, and the checkpoint last, so the pages vacuumed
+   // are returned to the file system
+   private List<Step> createSteps()
+   {
+      List<Step> newSteps = new ArrayList<Step>();
+
+      if (isDue(LAST_INTEGRITY_CHECK, INTEGRITY_INTERVAL_MILLIS))
+         newSteps.add(new IntegrityCheckStep());
+
+      newSteps.add(new AnalyzeStep());
+      newSteps.add(new VacuumStep());
+      newSteps.add(new CheckpointStep());
+      return newSteps;
+   }
+
+   // return the size of the database and its write-ahead log
+   private long getFileBytes()
+   {
+      return databaseFile.length() +
+         new File(databaseFile.getPath() + "-wal").length();
+   }
+
+   // checks every page, row and index entry; cancelled by the app and
+   // restarted later, as SQLite cannot resume it
+   private class IntegrityCheckStep extends Step
+   {
+      IntegrityCheckStep()
+      {
+         super("integrity_check");
+      }
+
+      @Override
+      boolean run(SQLiteDatabase db, CancellationSignal signal)
+      {
+         List<String> problems = new ArrayList<String>();
+         Cursor cursor = db.rawQuery("PRAGMA integrity_check(" +
+            MAX_INTEGRITY_ERRORS + ")", null, signal);
+
+         try
+         {
+            while (cursor.moveToNext())
+            {
+               if (!"ok".equals(cursor.getString(0)))
+                  problems.add(cursor.getString(0));
+            }
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         for (String problem : problems)
+            Log.e(TAG, "integrity_check: " + problem);
+
+         detail = problems.isEmpty() ? "ok" :
+            problems.size() + " problems, first: " + problems.get(0);
+         preferences.edit().putLong(
+            LAST_INTEGRITY_CHECK, System.currentTimeMillis()).apply();
+         return true;
+      } // end method run
+   } // end class IntegrityCheckStep
+
+   // refreshes the planner's statistics one table at a time once the
+   // movie count has changed enough to matter
+   private class AnalyzeStep extends Step
+   {
+      private List<String> tables; // left to analyze
+      private long movies; // movie count the statistics will describe
+
+      AnalyzeStep()
+      {
+         super("analyze");
+      }
+
+      @Override
+      boolean run(SQLiteDatabase db, CancellationSignal signal)
+      {
+         if (tables == null)
+         {
+            movies = DatabaseUtils.queryNumEntries(db, "movies");
+            long analyzed = preferences.getLong(ANALYZED_MOVIES, -1);
+
+            if (analyzed >= 0 &&
+               Math.abs(movies - analyzed) * ANALYZE_CHANGE_FRACTION <=
+               analyzed)
+            {
+               detail = "statistics current";
+               return true;
+            }
+
+            tables = getTables(db);
+            detail = tables.size() + " tables";
+         }
+
+         if (!tables.isEmpty())
+            db.execSQL("ANALYZE " + tables.remove(0));
+
+         if (!tables.isEmpty())
+            return false;
+
+         preferences.edit().putLong(ANALYZED_MOVIES, movies).apply();
+         return true;
+      } // end method run
+
+      // return the names of the ordinary tables
+      private List<String> getTables(SQLiteDatabase db)
+      {
+         List<String> names = new ArrayList<String>();
+         Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master " +
+            "WHERE type='table' AND name NOT LIKE 'sqlite_%' " +
+            "AND sql NOT LIKE 'CREATE VIRTUAL%'", null);
+
+         try
+         {
+            while (cursor.moveToNext())
+               names.add(cursor.getString(0));
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         return names;
+      }
+   } // end class AnalyzeStep
+
+   // returns free pages left by updates and deletes to the end of the
+   // file, VACUUM_PAGES at a time
+   private class VacuumStep extends Step
+   {
+      VacuumStep()
+      {
+         super("incremental_vacuum");
+      }
+
+      @Override
+      boolean run(SQLiteDatabase db, CancellationSignal signal)
+      {
+         long pageSize = db.getPageSize();
+         long free = getFreePages(db);
+
+         if (free == 0)
+         {
+            detail = "no free pages";
+            return true;
+         }
+
+         long mode = DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum",
+            null);
+
+         if (mode == 0) // NONE: the database predates incremental vacuum
+         {
+            if (free * pageSize < REBUILD_FREE_BYTES)
+            {
+               detail = free + " free pages, too few to rebuild";
+               return true;
+            }
+
+            // cannot be cancelled, but runs once and only when idle
+            db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+            db.execSQL("VACUUM");
+            bytesReclaimed += (free - getFreePages(db)) * pageSize;
+            detail = "rebuilt for incremental vacuum";
+            return true;
+         }
+         else if (mode != 2) // FULL: SQLite frees pages on each commit
+         {
+            detail = free + " free pages, auto_vacuum full";
+            return true;
+         }
+
+         Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" +
+            VACUUM_PAGES + ")", null, signal);
+
+         try
+         {
+            cursor.moveToFirst(); // runs the vacuum
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         long left = getFreePages(db);
+         bytesReclaimed += (free - left) * pageSize;
+         detail = left + " free pages left";
+         return left == 0 || left == free; // done or making no progress
+      } // end method run
+
+      private long getFreePages(SQLiteDatabase db)
+      {
+         return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count",
+            null);
+      }
+   } // end class VacuumStep
+
+   // copies the write-ahead log into the database without waiting for
+   // readers; the log is then reset, and truncated, by the next write
+   private class CheckpointStep extends Step
+   {
+      CheckpointStep()
+      {
+         super("wal_checkpoint");
+      }
+
+      @Override
+      boolean run(SQLiteDatabase db, CancellationSignal signal)
+      {
+         long before = getFileBytes();
+         Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)",
+            null, signal);
+
+         try
+         {
+            // busy, frames in the log, frames checkpointed
+            if (cursor.moveToFirst())
+               detail = String.format(Locale.US, "%d of %d frames%s",
+                  cursor.getInt(2), cursor.getInt(1),
+                  cursor.getInt(0) != 0 ? ", busy" : "");
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         bytesReclaimed += before - getFileBytes();
+         return true;
+      }
+   } // end class CheckpointStep
+} // end class DatabaseMaintenance
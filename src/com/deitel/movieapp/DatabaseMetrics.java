@@ -0,0 +1,251 @@
+// DatabaseMetrics.java
+// Latency histograms and counters for DatabaseConnector operations
+package com.deitel.movieapp;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import android.util.Log;
+
+final class DatabaseMetrics
+{
+   private static final String TAG = "DatabaseMetrics";
+   
+   // measured DatabaseConnector operations
+   static final int INSERT = 0;
+   static final int UPDATE = 1;
+   static final int DELETE = 2;
+   static final int DELETE_ALL = 3;
+   static final int GET_ALL = 4;
+   static final int GET_ONE = 5;
+   static final int GET_PAGE = 6; // getMoviesAfter, Before and At
+   static final int GET_FROM = 7;
+   static final int GET_COUNT = 8;
+   static final int GET_INITIALS = 9;
+   static final int GET_WITH_PERSON = 10;
+   static final int SEARCH = 11;
+   static final int GET_STATISTICS = 12; // genre, decade and director counts
+   static final int CACHE_MOVIES = 13;
+   static final int DELETE_MANY = 14;
+   static final int SET_POSTER = 15;
+   static final int GET_POSTERS = 16;
+   static final int FIND_DUPLICATE = 17;
+   static final int GET_DUPLICATES = 18;
+   private static final String[] NAMES = { "insertMovie", "updateMovie", 
+      "deleteMovie", "deleteAllMovies", "getAllMovies", "getOneMovie", 
+      "getMoviesAt", "getMoviesFrom", "getMovieCount", "getNameInitials", 
+      "getMoviesWithPerson", "searchMovies", "getStatistics", 
+      "cacheMovies", "deleteMovies", "setPoster", 
+      "getPosters", "findDuplicate", "getDuplicates" };
+   
+   // latency buckets: one per microsecond below 8, then four per power 
+   // of two, so a percentile is within 25% of the true value
+   private static final int BUCKETS = 100;
+   
+   // guards every field below; held only to add to the arrays, so the 
+   // hot path neither allocates nor waits long
+   private static final Object lock = new Object();
+   private static final long[][] histograms = 
+      new long[NAMES.length][BUCKETS];
+   private static final long[] calls = new long[NAMES.length];
+   private static final long[] rows = new long[NAMES.length];
+   private static final long[] totalNanos = new long[NAMES.length];
+   private static final long[] maxNanos = new long[NAMES.length];
+   private static long opens; // DatabaseConnector.open() calls
+   private static long closes; // DatabaseConnector.close() calls
+   private static long connects; // shared connection opened
+   private static long disconnects; // shared connection closed
+   private static long slowQueries;
+   
+   private static volatile boolean enabled = true;
+   private static volatile long slowNanos = 100 * 1000000L; // 100 ms
+   
+   // turn measuring on or off; while off, start returns 0 and nothing
+   // is recorded
+   static void setEnabled(boolean enable)
+   {
+      enabled = enable;
+   }
+   
+   static boolean isEnabled()
+   {
+      return enabled;
+   }
+   
+   // log operations that take longer than millis
+   static void setSlowQueryThreshold(long millis)
+   {
+      slowNanos = millis * 1000000L;
+   }
+   
+   // return the start time to pass to record, or 0 while disabled
+   static long start()
+   {
+      return enabled ? System.nanoTime() : 0;
+   }
+   
+   // record an operation begun at start that returned or changed rows
+   static void record(int operation, long start, int rowCount)
+   {
+      if (start == 0)
+         return; // started while disabled
+      
+      long nanos = System.nanoTime() - start;
+      int bucket = bucket(nanos / 1000);
+      
+      synchronized (lock)
+      {
+         ++histograms[operation][bucket];
+         ++calls[operation];
+         rows[operation] += rowCount;
+         totalNanos[operation] += nanos;
+         
+         if (nanos > maxNanos[operation])
+            maxNanos[operation] = nanos;
+         
+         if (nanos >= slowNanos)
+            ++slowQueries;
+      }
+      
+      if (nanos >= slowNanos) // only slow operations build a message
+         Log.w(TAG, "slow " + NAMES[operation] + ": " + 
+            nanos / 1000000 + " ms, " + rowCount + " rows");
+   } // end method record
+   
+   // count a connector's open() or close() call
+   static void countOpen()
+   {
+      if (enabled)
+      {
+         synchronized (lock)
+         {
+            ++opens;
+         }
+      }
+   }
+   
+   static void countClose()
+   {
+      if (enabled)
+      {
+         synchronized (lock)
+         {
+            ++closes;
+         }
+      }
+   }
+   
+   // count the shared connection being opened or closed
+   static void countConnect()
+   {
+      if (enabled)
+      {
+         synchronized (lock)
+         {
+            ++connects;
+         }
+      }
+   }
+   
+   static void countDisconnect()
+   {
+      if (enabled)
+      {
+         synchronized (lock)
+         {
+            ++disconnects;
+         }
+      }
+   }
+   
+   // clear every histogram and counter
+   static void reset()
+   {
+      synchronized (lock)
+      {
+         for (int i = 0; i < NAMES.length; ++i)
+         {
+            Arrays.fill(histograms[i], 0);
+            calls[i] = rows[i] = totalNanos[i] = maxNanos[i] = 0;
+         }
+         
+         opens = closes = connects = disconnects = slowQueries = 0;
+      }
+   }
+   
+   // return counts and p50/p95/p99/max latencies of each operation that
+   // has run, in microseconds, for dumpsys
+   static String getSnapshot()
+   {
+      StringBuilder snapshot = new StringBuilder();
+      
+      synchronized (lock)
+      {
+         snapshot.append(String.format(Locale.US, 
+            "database metrics (%s, slow >= %d ms): %d opens, %d closes, " +
+            "%d connects, %d disconnects, %d slow%n", 
+            enabled ? "on" : "off", slowNanos / 1000000, opens, closes, 
+            connects, disconnects, slowQueries));
+         
+         for (int i = 0; i < NAMES.length; ++i)
+         {
+            if (calls[i] == 0)
+               continue;
+            
+            snapshot.append(String.format(Locale.US, 
+               "%s: %d calls, %d rows, mean %d us, p50 %d us, " +
+               "p95 %d us, p99 %d us, max %d us%n", NAMES[i], calls[i], 
+               rows[i], totalNanos[i] / calls[i] / 1000, 
+               percentile(i, 50), percentile(i, 95), percentile(i, 99), 
+               maxNanos[i] / 1000));
+         }
+      }
+      
+      return snapshot.toString();
+   } // end method getSnapshot
+   
+   // return the upper bound of the bucket holding the operation's 
+   // percent percentile; called holding lock
+   private static long percentile(int operation, int percent)
+   {
+      long rank = (calls[operation] * percent + 99) / 100; // ceiling
+      long seen = 0;
+      
+      for (int bucket = 0; bucket < BUCKETS; ++bucket)
+      {
+         seen += histograms[operation][bucket];
+         
+         if (seen >= rank)
+            return Math.min(upperBound(bucket), maxNanos[operation] / 1000);
+      }
+      
+      return maxNanos[operation] / 1000;
+   }
+   
+   // return the bucket of a latency in microseconds
+   private static int bucket(long micros)
+   {
+      if (micros < 8)
+         return (int) micros;
+      
+      int highBit = 63 - Long.numberOfLeadingZeros(micros); // 3 or more
+      int bucket = 
+         8 + (highBit - 3) * 4 + (int) ((micros >> (highBit - 2)) & 3);
+      return Math.min(bucket, BUCKETS - 1);
+   }
+   
+   // return the smallest latency in microseconds above bucket's range
+   private static long upperBound(int bucket)
+   {
+      if (bucket < 8)
+         return bucket + 1;
+      
+      int highBit = 3 + (bucket - 8) / 4;
+      long step = 1L << (highBit - 2);
+      return (4 + (bucket - 8) % 4) * step + step;
+   }
+   
+   private DatabaseMetrics()
+   {
+   }
+} // end class DatabaseMetrics
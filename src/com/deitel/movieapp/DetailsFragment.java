@@ -8,9 +8,8 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.database.Cursor;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -19,8 +18,10 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import android.widget.Toast;
 
-public class DetailsFragment extends Fragment
+public class DetailsFragment extends Fragment 
+   implements MovieWriter.Listener
 {
    // callback methods implemented by MainActivity  
    public interface DetailsFragmentListener
@@ -51,12 +52,13 @@ public class DetailsFragment extends Fragment
       listener = (DetailsFragmentListener) activity;
    }
    
-   // remove DetailsFragmentListener when fragment detached
+   // remove DetailsFragmentListener and cancel loading when detached
    @Override
    public void onDetach()
    {
       super.onDetach();
       listener = null;
+      QueryScheduler.getInstance(getActivity()).cancelAll(this);
    }
 
    // called when DetailsFragmentListener's view needs to be created
@@ -100,8 +102,78 @@ public class DetailsFragment extends Fragment
    public void onResume()
    {
       super.onResume();
-      new LoadMovieTask().execute(rowID); // load contact at rowID
+      
+      // follow queued writes to the contact; a temporary rowID may 
+      // have been written since this fragment was created
+      MovieWriter movieWriter = MovieWriter.getInstance(getActivity());
+      movieWriter.addListener(this);
+      rowID = movieWriter.resolve(rowID);
+      
+      // show contact at rowID at once if a write of it is queued or it 
+      // is cached, else load it; a load still queued is replaced
+      Movie movie = movieWriter.getQueuedMovie(rowID);
+      
+      if (movie == null)
+         movie = MovieCache.get(rowID);
+      
+      if (movie != null)
+         displayMovie(movie);
+      else
+         loadMovie();
    } 
+   
+   // stop following queued writes while paused
+   @Override
+   public void onPause()
+   {
+      super.onPause();
+      MovieWriter.getInstance(getActivity()).removeListener(this);
+   }
+   
+   // load the contact from the database
+   private void loadMovie()
+   {
+      QueryScheduler.getInstance(getActivity()).submit(this, 
+         "details@" + Integer.toHexString(hashCode()), 
+         QueryScheduler.PRIORITY_VISIBLE, new LoadMovieQuery(rowID));
+   }
+   
+   // show new values of the contact as soon as they are queued
+   @Override
+   public void onWriteQueued(int type, long id, String oldName, 
+      String newName)
+   {
+      if (id == rowID && type != MovieChanges.DELETED)
+      {
+         Movie movie = 
+            MovieWriter.getInstance(getActivity()).getQueuedMovie(id);
+         
+         if (movie != null)
+            displayMovie(movie);
+      }
+   }
+   
+   // follow the contact from its temporary to its database rowID
+   @Override
+   public void onInsertFinished(long temporaryID, long id)
+   {
+      if (temporaryID == rowID && id != -1)
+         rowID = id;
+   }
+   
+   // undo a failed write: show the stored contact, or close if it was
+   // never stored
+   @Override
+   public void onWriteFailed(long id)
+   {
+      if (id != rowID)
+         return;
+      
+      if (rowID < 0)
+         listener.onMovieDeleted();
+      else
+         loadMovie();
+   }
 
    // save currently displayed contact's row ID
    @Override
@@ -147,48 +219,42 @@ public class DetailsFragment extends Fragment
    } 
    
    // performs database query outside GUI thread
-   private class LoadMovieTask extends AsyncTask<Long, Object, Cursor> 
+   private class LoadMovieQuery extends QueryScheduler.Query<Movie> 
    {
-      DatabaseConnector databaseConnector = 
-         new DatabaseConnector(getActivity());
+      private final long id; // row ID of the contact to load
+      
+      public LoadMovieQuery(long id)
+      {
+         this.id = id;
+      }
 
-      // open database & get Cursor representing specified contact's data
+      // get specified contact's data, caching it for the next visit
       @Override
-      protected Cursor doInBackground(Long... params)
+      protected Movie run(DatabaseConnector databaseConnector)
       {
-         databaseConnector.open();
-         return databaseConnector.getOneMovie(params[0]);
+         return databaseConnector.getMovie(id);
       } 
 
-      // use the Cursor returned from the doInBackground method
+      // display the contact returned from the run method
       @Override
-      protected void onPostExecute(Cursor result)
+      protected void onResult(Movie result)
       {
-         super.onPostExecute(result);
-         result.moveToFirst(); // move to the first item 
-   
-         // get the column index for each data item
-         int nameIndex = result.getColumnIndex("name");
-         int directorIndex = result.getColumnIndex("director");
-         int writerIndex = result.getColumnIndex("writer");
-         int actorIndex = result.getColumnIndex("actor");
-         int actressIndex = result.getColumnIndex("actress");
-         int genreIndex = result.getColumnIndex("genre");
-         int yearIndex = result.getColumnIndex("year");
-   
-         // fill TextViews with the retrieved data
-         nameTextView.setText(result.getString(nameIndex));
-         directorTextView.setText(result.getString(directorIndex));
-         writerTextView.setText(result.getString(writerIndex));
-         actorTextView.setText(result.getString(actorIndex));
-         actressTextView.setText(result.getString(actressIndex));
-         genreTextView.setText(result.getString(genreIndex));
-         yearTextView.setText(result.getString(yearIndex));
+         if (result != null) // null if the contact was just deleted
+            displayMovie(result);
+      }
+   } // end class LoadMovieQuery
    
-         result.close(); // close the result cursor
-         databaseConnector.close(); // close database connection
-      } // end method onPostExecute
-   } // end class LoadMovieTask
+   // fill TextViews with a contact's data
+   private void displayMovie(Movie movie)
+   {
+      nameTextView.setText(movie.name);
+      directorTextView.setText(movie.director);
+      writerTextView.setText(movie.writer);
+      actorTextView.setText(movie.actor);
+      actressTextView.setText(movie.actress);
+      genreTextView.setText(movie.genre);
+      yearTextView.setText(movie.year);
+   }
 
    // delete a contact
    private void deleteMovie()
@@ -220,29 +286,26 @@ public class DetailsFragment extends Fragment
                   public void onClick(
                      DialogInterface dialog, int button)
                   {
-                     final DatabaseConnector databaseConnector = 
-                        new DatabaseConnector(getActivity());
-      
-                     // AsyncTask deletes contact and notifies listener
-                     AsyncTask<Long, Object, Object> deleteTask =
-                        new AsyncTask<Long, Object, Object>()
+                     // MovieWriter deletes contact at rowID; the list 
+                     // drops it at once and restores it if the delete 
+                     // fails
+                     final Context context = 
+                        getActivity().getApplicationContext();
+                     MovieWriter.getInstance(getActivity()).delete(rowID,
+                        nameTextView.getText().toString(),
+                        new MovieWriter.Callback()
                         {
                            @Override
-                           protected Object doInBackground(Long... params)
-                           {
-                              databaseConnector.deleteMovie(params[0]); 
-                              return null;
-                           } 
-      
-                           @Override
-                           protected void onPostExecute(Object result)
+                           public void onWritten(long writtenID)
                            {                                 
-                              listener.onMovieDeleted();
+                              if (writtenID == -1)
+                                 Toast.makeText(context, 
+                                    R.string.error_deleting, 
+                                    Toast.LENGTH_LONG).show();
                            }
-                        }; // end new AsyncTask
-      
-                     // execute the AsyncTask to delete contact at rowID
-                     deleteTask.execute(new Long[] { rowID });               
+                        }); // end call to delete
+                     
+                     listener.onMovieDeleted();
                   } // end method onClick
                } // end anonymous inner class
             ); // end call to method setPositiveButton
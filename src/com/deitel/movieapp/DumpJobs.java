@@ -0,0 +1,135 @@
+// DumpJobs.java
+// Runs the long dumpsys commands one at a time on a background thread
+// and keeps their progress for the next dump to report
+package com.deitel.movieapp;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class DumpJobs
+{
+   private static final String TAG = "DumpJobs";
+
+   // one command's work, e.g. an import
+   public abstract static class Job
+   {
+      final String name;
+      private volatile String progress = ""; // latest, or "" for none
+
+      public Job(String name)
+      {
+         this.name = name;
+      }
+
+      // runs on the jobs thread; returns the line reporting the result
+      protected abstract String run(Context context) throws IOException;
+
+      // record how far the job has got, for getReport
+      protected void setProgress(String progress)
+      {
+         this.progress = progress;
+      }
+   } // end class Job
+
+   private static DumpJobs instance; // process-wide job runner
+
+   private final Context context; // passed to each job
+   private final Handler handler; // runs jobs on the jobs thread
+   private final Object lock = new Object();
+   private Job job; // running or last finished, or null
+   private String result; // of job, or null while it runs
+   private long startMillis; // uptimeMillis job started at
+   private long elapsedMillis; // of job, once finished
+
+   // return the process-wide DumpJobs
+   public static synchronized DumpJobs getInstance(Context context)
+   {
+      if (instance == null)
+         instance = new DumpJobs(context.getApplicationContext());
+
+      return instance;
+   }
+
+   // private constructor; use getInstance
+   private DumpJobs(Context context)
+   {
+      this.context = context;
+
+      HandlerThread thread =
+         new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+      thread.start();
+      handler = new Handler(thread.getLooper());
+   }
+
+   // start newJob unless another is running; returns false if one is
+   public boolean start(final Job newJob)
+   {
+      synchronized (lock)
+      {
+         if (job != null && result == null)
+            return false; // one job at a time
+
+         job = newJob;
+         result = null;
+         startMillis = SystemClock.uptimeMillis();
+      }
+
+      handler.post(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            String jobResult;
+
+            try
+            {
+               jobResult = newJob.run(context);
+            }
+            catch (IOException e)
+            {
+               jobResult = newJob.name + " failed: " + e;
+            }
+            catch (RuntimeException e)
+            {
+               Log.w(TAG, newJob.name + " failed", e);
+               jobResult = newJob.name + " failed: " + e;
+            }
+
+            synchronized (lock)
+            {
+               result = jobResult;
+               elapsedMillis = SystemClock.uptimeMillis() - startMillis;
+            }
+
+            Log.i(TAG, jobResult);
+         }
+      });
+
+      return true;
+   } // end method start
+
+   // return the running or last job's progress or result
+   public String getReport()
+   {
+      synchronized (lock)
+      {
+         if (job == null)
+            return String.format(Locale.US, "no job has run%n");
+
+         if (result == null)
+            return String.format(Locale.US, "%s: running for %d ms%s%n",
+               job.name, SystemClock.uptimeMillis() - startMillis,
+               job.progress.length() > 0 ? ", " + job.progress : "");
+
+         return String.format(Locale.US, "%s: finished in %d ms%n  %s%n",
+            job.name, elapsedMillis, result.trim().replace("\n", "\n  "));
+      }
+   } // end method getReport
+} // end class DumpJobs
@@ -0,0 +1,118 @@
+// DuplicateScanner.java
+// Finds every group of duplicate movies by their indexed match hashes
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+final class DuplicateScanner
+{
+   // movies whose names and years MovieKeys normalizes to one key
+   static class Group
+   {
+      final String name; // of the first movie added
+      final String year;
+      final long[] ids; // in the order the movies were added
+
+      Group(String name, String year, long[] ids)
+      {
+         this.name = name;
+         this.year = year;
+         this.ids = ids;
+      }
+   } // end class Group
+
+   // one movie read by the scan
+   private static class Row
+   {
+      final long id;
+      final String name;
+      final String year;
+
+      Row(long id, String name, String year)
+      {
+         this.id = id;
+         this.name = name;
+         this.year = year;
+      }
+   }
+
+   // return the groups of duplicates; the database groups the match hash
+   // index in one pass, so only movies sharing a hash are read, and those
+   // are compared by key in case two different keys share a hash
+   static List<Group> scan(DatabaseConnector databaseConnector,
+      CancellationSignal cancellationSignal)
+   {
+      List<Group> groups = new ArrayList<Group>();
+      List<Row> sameHash = new ArrayList<Row>();
+      long hash = 0;
+      Cursor cursor = databaseConnector.getDuplicates(cancellationSignal);
+
+      try
+      {
+         while (cursor.moveToNext())
+         {
+            if (!sameHash.isEmpty() && cursor.getLong(3) != hash)
+            {
+               addGroups(groups, sameHash);
+               sameHash.clear();
+            }
+
+            hash = cursor.getLong(3);
+            sameHash.add(new Row(cursor.getLong(0), cursor.getString(1),
+               cursor.getString(2)));
+         }
+
+         addGroups(groups, sameHash);
+      }
+      finally
+      {
+         cursor.close();
+      }
+
+      return groups;
+   } // end method scan
+
+   // add a group for each key that more than one of rows has
+   private static void addGroups(List<Group> groups, List<Row> rows)
+   {
+      Map<String, List<Row>> byKey = new LinkedHashMap<String, List<Row>>();
+
+      for (Row row : rows)
+      {
+         String key = MovieKeys.matchKey(row.name, row.year);
+         List<Row> sameKey = byKey.get(key);
+
+         if (sameKey == null)
+         {
+            sameKey = new ArrayList<Row>();
+            byKey.put(key, sameKey);
+         }
+
+         sameKey.add(row);
+      }
+
+      for (List<Row> sameKey : byKey.values())
+      {
+         if (sameKey.size() < 2)
+            continue; // a hash collision, not a duplicate
+
+         long[] ids = new long[sameKey.size()];
+
+         for (int i = 0; i < ids.length; ++i)
+            ids[i] = sameKey.get(i).id;
+
+         groups.add(new Group(sameKey.get(0).name, sameKey.get(0).year,
+            ids));
+      }
+   } // end method addGroups
+
+   private DuplicateScanner()
+   {
+   }
+} // end class DuplicateScanner
@@ -2,8 +2,15 @@
 // Hosts Address Book app's fragments
 package com.deitel.movieapp;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
 import android.app.Activity;
 import android.app.FragmentTransaction;
+import android.content.Context;
 import android.os.Bundle;
 
 public class MainActivity extends Activity 
@@ -14,6 +21,9 @@ public class MainActivity extends Activity
    // keys for storing row ID in Bundle passed to a fragment
    public static final String ROW_ID = "row_id"; 
    
+   // longest onStop waits for queued writes, far below the ANR timeout
+   private static final long STOP_FLUSH_MILLIS = 200;
+   
    MovieListFragment movieListFragment; // displays Movie list
    
    // display MovieListFragment when MainActivity first loads
@@ -58,6 +68,26 @@ public class MainActivity extends Activity
       }
    }
    
+   // leave the database to the app while it is on screen
+   @Override
+   protected void onStart()
+   {
+      super.onStart();
+      DatabaseMaintenance.getInstance(this).stop();
+   }
+   
+   // commit queued writes before the process may be killed in the 
+   // background, then maintain the database once it is idle; a long 
+   // burst, e.g. a bulk delete, finishes on the writer thread instead of
+   // holding up the GUI thread
+   @Override
+   protected void onStop()
+   {
+      super.onStop();
+      MovieWriter.getInstance(this).flush(STOP_FLUSH_MILLIS);
+      DatabaseMaintenance.getInstance(this).scheduleIdle();
+   }
+   
    // display DetailsFragment for selected movie
    @Override
    public void onMovieSelected(long rowID)
@@ -99,6 +129,21 @@ public class MainActivity extends Activity
          displayAddEditFragment(R.id.rightPaneContainer, null);
    }
    
+   // display the StatsFragment with counts by genre, decade and director
+   @Override
+   public void onShowStatistics()
+   {
+      int viewID = findViewById(R.id.fragmentContainer) != null ?
+         R.id.fragmentContainer : R.id.rightPaneContainer;
+      
+      // use a FragmentTransaction to display the StatsFragment
+      FragmentTransaction transaction = 
+         getFragmentManager().beginTransaction();
+      transaction.replace(viewID, new StatsFragment());
+      transaction.addToBackStack(null);
+      transaction.commit(); // causes StatsFragment to display
+   }
+   
    // display fragment for adding a new or editing an existing Movie
    private void displayAddEditFragment(int viewID, Bundle arguments)
    {
@@ -115,14 +160,12 @@ public class MainActivity extends Activity
       transaction.commit(); // causes AddEditFragment to display
    }
    
-   // return to Movie list when displayed Movie deleted
+   // return to Movie list when displayed Movie deleted; the list 
+   // removes the Movie itself when the deletion is published
    @Override
    public void onMovieDeleted()
    {
       getFragmentManager().popBackStack(); // removes top of back stack
-      
-      if (findViewById(R.id.fragmentContainer) == null) // tablet
-         movieListFragment.updateMovieList();
    }
 
    // display the AddEditFragment to edit an existing Movie
@@ -135,7 +178,8 @@ public class MainActivity extends Activity
          displayAddEditFragment(R.id.rightPaneContainer, arguments);
    }
 
-   // update GUI after new Movie or updated Movie saved
+   // update GUI after new Movie or updated Movie saved; the list applies
+   // the change itself when it is published
    @Override
    public void onAddEditCompleted(long rowID)
    {
@@ -144,13 +188,223 @@ public class MainActivity extends Activity
       if (findViewById(R.id.fragmentContainer) == null) // tablet
       {
          getFragmentManager().popBackStack(); // removes top of back stack
-         movieListFragment.updateMovieList(); // refresh Movies
 
          // on tablet, display Movie that was just added or edited
          displayMovie(rowID, R.id.rightPaneContainer); 
       }
    }   
-}
-
-
+   
+   // handles "adb shell dumpsys activity 
+   // com.deitel.addressbook/com.deitel.movieapp.MainActivity <command>"
+   // where command is "benchmark [n]", "import <file.csv|file.json>",
+   // "export <file.csv|file.mvbk>", "restore <file.mvbk>", "cache" 
+   // (movie detail and poster cache statistics), "startup" (cold start 
+   // timings), "metrics [on|off|reset|slow <ms>]" (database latencies 
+   // and counts), "stats rebuild" (recount the statistics tables), 
+   // "maintenance [run]" (the last maintenance run's steps) or "job" 
+   // (progress of the last benchmark, import, export, restore or stats 
+   // rebuild, which run in the background as dump runs on the GUI thread)
+   @Override
+   public void dump(String prefix, FileDescriptor fd, 
+      PrintWriter writer, String[] args)
+   {
+      if (args != null && args.length > 0 && "job".equals(args[0]))
+      {
+         writer.print(DumpJobs.getInstance(this).getReport());
+         return;
+      }
+      
+      if (args != null && args.length > 0 && "startup".equals(args[0]))
+      {
+         writer.print(MovieApplication.getStartupReport());
+         return;
+      }
+      
+      if (args != null && args.length > 1 && 
+         ("export".equals(args[0]) || "restore".equals(args[0])))
+      {
+         startJob(writer, backupJob("export".equals(args[0]), args[1]));
+         return;
+      }
+      
+      if (args != null && args.length > 0 && "metrics".equals(args[0]))
+      {
+         if (args.length > 1 && "on".equals(args[1]))
+            DatabaseMetrics.setEnabled(true);
+         else if (args.length > 1 && "off".equals(args[1]))
+            DatabaseMetrics.setEnabled(false);
+         else if (args.length > 1 && "reset".equals(args[1]))
+            DatabaseMetrics.reset();
+         else if (args.length > 2 && "slow".equals(args[1]))
+         {
+            try
+            {
+               DatabaseMetrics.setSlowQueryThreshold(
+                  Long.parseLong(args[2]));
+            }
+            catch (NumberFormatException e)
+            {
+               writer.println("metrics slow: not a number of ms: " + args[2]);
+               return;
+            }
+         }
+         
+         writer.print(DatabaseMetrics.getSnapshot());
+         return;
+      }
+      
+      if (args != null && args.length > 1 && "stats".equals(args[0]) &&
+         "rebuild".equals(args[1]))
+      {
+         startJob(writer, statsRebuildJob());
+         return;
+      }
+      
+      if (args != null && args.length > 0 && "maintenance".equals(args[0]))
+      {
+         DatabaseMaintenance maintenance = 
+            DatabaseMaintenance.getInstance(this);
+         
+         if (args.length > 1 && "run".equals(args[1]))
+            maintenance.runNow();
+         
+         writer.print(maintenance.getReport());
+         return;
+      }
+      
+      if (args != null && args.length > 0 && "cache".equals(args[0]))
+      {
+         writer.print(MovieCache.getStatistics());
+         writer.print(PosterCache.getInstance(this).getStatistics());
+         return;
+      }
+      
+      if (args != null && args.length > 0 && "benchmark".equals(args[0]))
+      {
+         int operations = 1000;
+         
+         try
+         {
+            if (args.length > 1)
+               operations = Integer.parseInt(args[1]);
+         }
+         catch (NumberFormatException e)
+         {
+            operations = 0; // reported below
+         }
+         
+         if (operations <= 0)
+         {
+            writer.println("benchmark: not a number of operations: " + 
+               args[1]);
+            return;
+         }
+         
+         startJob(writer, benchmarkJob(operations));
+         return;
+      }
+      
+      if (args != null && args.length > 1 && "import".equals(args[0]))
+      {
+         startJob(writer, importJob(args[1]));
+         return;
+      }
 
+      super.dump(prefix, fd, writer, args);
+   }
+   
+   // start a dump command's job in the background and say how to follow
+   // it, or report the job already running
+   private void startJob(PrintWriter writer, DumpJobs.Job job)
+   {
+      DumpJobs jobs = DumpJobs.getInstance(this);
+      
+      if (jobs.start(job))
+         writer.println(job.name + " started; \"job\" reports its progress");
+      else
+         writer.print("another job is running: " + jobs.getReport());
+   }
+   
+   // the jobs are made in static methods so they do not hold on to the 
+   // Activity while they run
+   
+   // return a job exporting the movies to path, or restoring them from it
+   private static DumpJobs.Job backupJob(final boolean export, String path)
+   {
+      final File file = new File(path);
+      return new DumpJobs.Job((export ? "export " : "restore ") + path)
+      {
+         @Override
+         protected String run(Context context) throws IOException
+         {
+            MovieBackup backup = new MovieBackup(context);
+            
+            if (export)
+               return String.format(Locale.US, "exported %d movies", 
+                  backup.exportFile(file));
+            
+            return String.format(Locale.US, "restored %d movies", 
+               backup.restoreFile(file));
+         }
+      };
+   } // end method backupJob
+   
+   // return a job recounting the statistics tables
+   private static DumpJobs.Job statsRebuildJob()
+   {
+      return new DumpJobs.Job("stats rebuild")
+      {
+         @Override
+         protected String run(Context context)
+         {
+            new DatabaseConnector(context).rebuildStatistics();
+            return "statistics rebuilt";
+         }
+      };
+   }
+   
+   // return a job timing operations of each kind of database access
+   private static DumpJobs.Job benchmarkJob(final int operations)
+   {
+      return new DumpJobs.Job("benchmark " + operations)
+      {
+         @Override
+         protected String run(Context context)
+         {
+            return new DatabaseBenchmark(context, operations).run();
+         }
+      };
+   }
+   
+   // return a job importing the movies of the file at path, reporting 
+   // its progress as it goes
+   private static DumpJobs.Job importJob(String path)
+   {
+      final File file = new File(path);
+      return new DumpJobs.Job("import " + path)
+      {
+         @Override
+         protected String run(Context context) throws IOException
+         {
+            MovieImporter importer = new MovieImporter(context);
+            importer.setProgressListener(
+               new MovieImporter.ImportProgressListener()
+               {
+                  @Override
+                  public void onProgress(long rowsImported, long bytesRead, 
+                     long totalBytes, long rowsPerSecond)
+                  {
+                     setProgress(String.format(Locale.US, 
+                        "%d rows, %d/%d bytes, %d rows/s", rowsImported, 
+                        bytesRead, totalBytes, rowsPerSecond));
+                  }
+               });
+            
+            long rows = importer.importFile(file);
+            return String.format(Locale.US, "imported %d movies, " +
+               "skipped %d, %d duplicates", rows, importer.getRowsSkipped(), 
+               importer.getDuplicatesSkipped());
+         }
+      };
+   } // end method importJob
+}
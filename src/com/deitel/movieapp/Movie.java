@@ -0,0 +1,44 @@
+// Movie.java
+// One movie's details, read once and kept in MovieCache
+package com.deitel.movieapp;
+
+import android.database.Cursor;
+
+public final class Movie
+{
+   public final long id; // the movie's rowID
+   public final String name;
+   public final String director;
+   public final String writer;
+   public final String actor;
+   public final String actress;
+   public final String genre;
+   public final String year; // as displayed; null if unknown
+   
+   // a movie as entered, e.g. one waiting in MovieWriter's queue
+   Movie(long id, String name, String director, String writer, 
+      String actor, String actress, String genre, String year)
+   {
+      this.id = id;
+      this.name = name;
+      this.director = director;
+      this.writer = writer;
+      this.actor = actor;
+      this.actress = actress;
+      this.genre = genre;
+      this.year = year;
+   }
+   
+   // copy the current row of a getOneMovie Cursor
+   Movie(Cursor cursor)
+   {
+      id = cursor.getLong(cursor.getColumnIndex("_id"));
+      name = cursor.getString(cursor.getColumnIndex("name"));
+      director = cursor.getString(cursor.getColumnIndex("director"));
+      writer = cursor.getString(cursor.getColumnIndex("writer"));
+      actor = cursor.getString(cursor.getColumnIndex("actor"));
+      actress = cursor.getString(cursor.getColumnIndex("actress"));
+      genre = cursor.getString(cursor.getColumnIndex("genre"));
+      year = cursor.getString(cursor.getColumnIndex("year"));
+   }
+} // end class Movie
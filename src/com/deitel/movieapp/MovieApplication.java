@@ -0,0 +1,76 @@
+// MovieApplication.java
+// Starts opening the database before the first Activity is created
+package com.deitel.movieapp;
+
+import java.util.Locale;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class MovieApplication extends Application
+{
+   private static final String TAG = "MovieApplication";
+   
+   // rows read while warming, enough for the first screen
+   private static final int WARM_ROWS = 50;
+   
+   private static long startMillis; // elapsedRealtime at process start
+   private static long databaseReadyMillis = -1; // after startMillis
+   private static long firstRenderMillis = -1; // after startMillis
+   private static boolean firstRenderCached; // drawn from the saved rows
+   
+   // open and warm the database on a scheduler thread while the GUI is
+   // being built; the list's first query then finds it ready
+   @Override
+   public void onCreate()
+   {
+      super.onCreate();
+      startMillis = SystemClock.elapsedRealtime();
+      PagedMovieAdapter.preloadFirstScreen(this);
+      PosterCache.getInstance(this); // deletes posters from the start
+      
+      QueryScheduler.getInstance(this).submit(this, "warm", 
+         QueryScheduler.PRIORITY_VISIBLE, new QueryScheduler.Query<Void>()
+         {
+            // opening the connector creates or upgrades the database; 
+            // reading the first rows brings their pages into the cache
+            @Override
+            protected Void run(DatabaseConnector databaseConnector)
+            {
+               Cursor cursor = databaseConnector.getMoviesAt(0, WARM_ROWS);
+               cursor.getCount(); // runs the query
+               cursor.close();
+               return null;
+            }
+
+            @Override
+            protected void onResult(Void result)
+            {
+               databaseReadyMillis = 
+                  SystemClock.elapsedRealtime() - startMillis;
+            }
+         });
+   } // end method onCreate
+   
+   // records the first time the movie list drew, once per process
+   static void reportFirstRender(boolean cached)
+   {
+      if (firstRenderMillis >= 0)
+         return;
+      
+      firstRenderMillis = SystemClock.elapsedRealtime() - startMillis;
+      firstRenderCached = cached;
+      Log.i(TAG, getStartupReport());
+   }
+   
+   // return the startup timings for the log and dumpsys
+   static String getStartupReport()
+   {
+      return String.format(Locale.US, 
+         "time to first list render: %d ms%s, " +
+         "database ready: %d ms%n", firstRenderMillis, 
+         firstRenderCached ? " (saved rows)" : "", databaseReadyMillis);
+   }
+} // end class MovieApplication
@@ -0,0 +1,458 @@
+// MovieBackup.java
+// Streams the movie library to CSV or checksummed backup files and back
+package com.deitel.movieapp;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.database.Cursor;
+
+public class MovieBackup
+{
+   // backup files end with this extension; anything else exports as CSV
+   public static final String BACKUP_EXTENSION = ".mvbk";
+
+   // backup file layout, all integers big-endian:
+   //   "MVBK", format version (int), column count (int)
+   //   per movie: 1, then per column a varint of its UTF-8 length + 1
+   //      (0 for NULL) followed by the bytes
+   //   0, movie count (long), CRC32 of every byte before it (long)
+   // the columns are MovieImporter's COLUMNS, then, from version 2, the
+   // movie's rowID and poster, so a restore keeps its poster file
+   private static final byte[] MAGIC = { 'M', 'V', 'B', 'K' };
+   private static final int FORMAT_VERSION = 2;
+   private static final int MOVIE_RECORD = 1;
+   private static final int END_RECORD = 0;
+
+   private static final int BUFFER_SIZE = 64 * 1024; // bytes per I/O call
+   private static final int CHUNK_SIZE = 1000; // movies per Cursor
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final Context context;
+
+   // public constructor for MovieBackup
+   public MovieBackup(Context context)
+   {
+      this.context = context.getApplicationContext();
+   }
+
+   // writes every movie to file, as a backup if its name ends with
+   // BACKUP_EXTENSION and otherwise as CSV that MovieImporter reads back;
+   // returns the number of movies written
+   public long exportFile(File file) throws IOException
+   {
+      boolean backup = file.getName().toLowerCase(Locale.US).endsWith(
+         BACKUP_EXTENSION);
+      MovieWriter.getInstance(context).flush(); // include queued edits
+      FileOutputStream output = new FileOutputStream(file);
+      ChannelWriter writer = new ChannelWriter(output.getChannel());
+      DatabaseConnector databaseConnector = new DatabaseConnector(context);
+      databaseConnector.open();
+
+      try
+      {
+         long movies = 0;
+         String[] row = new String[backup ? 
+            MovieImporter.ROW_LENGTH : MovieImporter.COLUMNS.length];
+
+         if (backup)
+         {
+            writer.write(MAGIC, 0, MAGIC.length);
+            writer.writeInt(FORMAT_VERSION);
+            writer.writeInt(row.length);
+         }
+         else
+            writeCsvRecord(writer, MovieImporter.COLUMNS);
+
+         // read the movies a chunk at a time in _id order, so neither
+         // the Cursor nor the output grows with the library
+         long lastID = 0;
+         int read;
+
+         do
+         {
+            Cursor cursor = 
+               databaseConnector.getMoviesFrom(lastID, CHUNK_SIZE);
+            read = 0;
+
+            try
+            {
+               while (cursor.moveToNext())
+               {
+                  lastID = cursor.getLong(0);
+
+                  for (int i = 0; i < MovieImporter.COLUMNS.length; ++i)
+                     row[i] = cursor.getString(i + 1); // after _id
+
+                  if (backup)
+                  {
+                     row[MovieImporter.ROW_ID] = cursor.getString(0);
+                     row[MovieImporter.POSTER] = 
+                        cursor.getString(MovieImporter.COLUMNS.length + 1);
+                  }
+
+                  if (backup)
+                  {
+                     writer.writeByte(MOVIE_RECORD);
+
+                     for (String value : row)
+                        writer.writeString(value);
+                  }
+                  else
+                     writeCsvRecord(writer, row);
+
+                  ++read;
+               }
+            }
+            finally
+            {
+               cursor.close();
+            }
+
+            movies += read;
+         } while (read == CHUNK_SIZE);
+
+         if (backup)
+         {
+            writer.writeByte(END_RECORD);
+            writer.writeLong(movies);
+            writer.writeLong(writer.getChecksum());
+         }
+
+         writer.flush();
+         output.getFD().sync(); // a backup is only useful once on disk
+         return movies;
+      }
+      finally
+      {
+         databaseConnector.close();
+         output.close();
+      }
+   } // end method exportFile
+
+   // replaces every movie with those in a backup file after checking the
+   // whole file against its checksum; returns the number restored
+   public long restoreFile(File file) throws IOException
+   {
+      // first pass: a damaged backup must not replace the library
+      InputStream input = new FileInputStream(file);
+
+      try
+      {
+         BackupRowSource rows = new BackupRowSource(input);
+         String[] row = new String[MovieImporter.ROW_LENGTH];
+
+         while (rows.next(row))
+         {
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+
+      // second pass: replace the movies through MovieImporter's batches
+      // in one transaction, so a failure part way keeps the old library;
+      // after queued edits, which would otherwise land on the restored data
+      MovieWriter.getInstance(context).flush();
+      MovieImporter.CountingInputStream countingInput =
+         new MovieImporter.CountingInputStream(new FileInputStream(file));
+
+      try
+      {
+         MovieImporter importer = new MovieImporter(context);
+         importer.setSkipDuplicates(false); // saved as the user chose
+         importer.setReplaceAll(true);
+         return importer.importRows(new BackupRowSource(countingInput), 
+            countingInput, file.length());
+      }
+      finally
+      {
+         countingInput.close();
+      }
+   } // end method restoreFile
+
+   // writes one CSV record, quoting fields as RFC 4180 requires
+   private static void writeCsvRecord(ChannelWriter writer, String[] fields)
+      throws IOException
+   {
+      StringBuilder record = new StringBuilder();
+
+      for (int i = 0; i < fields.length; ++i)
+      {
+         String field = fields[i] == null ? "" : fields[i];
+
+         if (i > 0)
+            record.append(',');
+
+         if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 ||
+            field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0)
+            record.append('"').append(field.replace("\"", "\"\"")).append('"');
+         else
+            record.append(field);
+      }
+
+      byte[] bytes = record.append("\r\n").toString().getBytes(UTF8);
+      writer.write(bytes, 0, bytes.length);
+   }
+
+   // writes through a fixed buffer to a channel, checksumming every byte
+   private static class ChannelWriter
+   {
+      private final WritableByteChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      private final CRC32 checksum = new CRC32();
+
+      public ChannelWriter(WritableByteChannel channel)
+      {
+         this.channel = channel;
+      }
+
+      public void writeByte(int b) throws IOException
+      {
+         reserve(1);
+         buffer.put((byte) b);
+      }
+
+      public void writeInt(int value) throws IOException
+      {
+         reserve(4);
+         buffer.putInt(value);
+      }
+
+      public void writeLong(long value) throws IOException
+      {
+         reserve(8);
+         buffer.putLong(value);
+      }
+
+      // writes a value as its length + 1 (0 for null) then its UTF-8 bytes
+      public void writeString(String value) throws IOException
+      {
+         if (value == null)
+         {
+            writeVarint(0);
+            return;
+         }
+
+         byte[] bytes = value.getBytes(UTF8);
+         writeVarint(bytes.length + 1);
+         write(bytes, 0, bytes.length);
+      }
+
+      // writes 7 bits per byte, low bits first, high bit set if more follow
+      public void writeVarint(int value) throws IOException
+      {
+         while ((value & ~0x7F) != 0)
+         {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+
+         writeByte(value);
+      }
+
+      public void write(byte[] bytes, int offset, int length)
+         throws IOException
+      {
+         while (length > 0)
+         {
+            reserve(1);
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+         }
+      }
+
+      // return the checksum of everything written so far
+      public long getChecksum() throws IOException
+      {
+         flush();
+         return checksum.getValue();
+      }
+
+      // writes the buffered bytes to the channel
+      public void flush() throws IOException
+      {
+         checksum.update(buffer.array(), 0, buffer.position());
+         buffer.flip();
+
+         while (buffer.hasRemaining())
+            channel.write(buffer);
+
+         buffer.clear();
+      }
+
+      // flushes unless bytes more bytes fit in the buffer
+      private void reserve(int bytes) throws IOException
+      {
+         if (buffer.remaining() < bytes)
+            flush();
+      }
+   } // end class ChannelWriter
+
+   // reads the movies of a backup through a fixed buffer, checking the
+   // header, the movie count and the checksum
+   private static class BackupRowSource implements MovieImporter.RowSource
+   {
+      private final ReadableByteChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      private final CRC32 checksum = new CRC32();
+      private byte[] bytes = new byte[256]; // grows to the longest value
+      private final int columns; // values per movie record
+      private long movies; // movie records read
+      private boolean ended; // end record read and verified
+
+      // constructor reads and checks the header
+      public BackupRowSource(InputStream input) throws IOException
+      {
+         channel = Channels.newChannel(input);
+         buffer.flip(); // empty until the first read
+
+         for (byte b : MAGIC)
+         {
+            if (readByte() != b)
+               throw new IOException("Not a movie backup");
+         }
+
+         int version = readInt();
+
+         if (version < 1 || version > FORMAT_VERSION)
+            throw new IOException("Unsupported backup version " + version);
+
+         // version 1 has no rowIDs or posters
+         columns = readInt();
+
+         if (columns != (version == 1 ? 
+            MovieImporter.COLUMNS.length : MovieImporter.ROW_LENGTH))
+            throw new IOException("Unexpected backup column count");
+      }
+
+      @Override
+      public boolean next(String[] row) throws IOException
+      {
+         if (ended)
+            return false;
+
+         int record = readByte();
+
+         if (record == END_RECORD)
+         {
+            if (readLong() != movies)
+               throw new IOException("Backup movie count does not match");
+
+            long expectedChecksum = checksum.getValue();
+
+            if (readLong() != expectedChecksum)
+               throw new IOException("Backup checksum does not match");
+
+            ended = true;
+            return false;
+         }
+
+         if (record != MOVIE_RECORD)
+            throw new IOException("Damaged backup record");
+
+         for (int i = 0; i < row.length; ++i)
+            row[i] = i < columns ? readString() : null;
+
+         ++movies;
+         return true;
+      } // end method next
+
+      private String readString() throws IOException
+      {
+         int length = readVarint() - 1;
+
+         if (length < 0)
+            return null;
+
+         if (length > bytes.length)
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+
+         for (int offset = 0; offset < length; )
+         {
+            fill();
+            int count = Math.min(length - offset, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            checksum.update(bytes, offset, count);
+            offset += count;
+         }
+
+         return new String(bytes, 0, length, UTF8);
+      }
+
+      private int readVarint() throws IOException
+      {
+         int value = 0;
+
+         for (int shift = 0; shift < 32; shift += 7)
+         {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+               return value;
+         }
+
+         throw new IOException("Damaged backup length");
+      }
+
+      private int readInt() throws IOException
+      {
+         int value = 0;
+
+         for (int i = 0; i < 4; ++i)
+            value = value << 8 | readByte();
+
+         return value;
+      }
+
+      private long readLong() throws IOException
+      {
+         return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+      }
+
+      // returns the next byte, 0 to 255
+      private int readByte() throws IOException
+      {
+         fill();
+         int b = buffer.get() & 0xFF;
+         checksum.update(b);
+         return b;
+      }
+
+      // refills the buffer if it has been consumed
+      private void fill() throws IOException
+      {
+         if (buffer.hasRemaining())
+            return;
+
+         buffer.clear();
+         int read;
+
+         do
+         {
+            read = channel.read(buffer);
+         } while (read == 0);
+
+         buffer.flip();
+
+         if (read < 0)
+            throw new EOFException("Backup ends early");
+      }
+   } // end class BackupRowSource
+} // end class MovieBackup
@@ -0,0 +1,71 @@
+// MovieCache.java
+// Process-wide LRU cache of Movie details keyed by rowID
+package com.deitel.movieapp;
+
+import java.util.Locale;
+
+import android.util.LruCache;
+
+final class MovieCache
+{
+   // movies kept; the rows MovieListFragment prefetches around the 
+   // screen, plus a few screens of back-and-forth on a tablet
+   private static final int MAX_MOVIES = 128;
+
+   private static final LruCache<Long, Movie> movies = 
+      new LruCache<Long, Movie>(MAX_MOVIES);
+   
+   // changes on every invalidation, so a read that overlapped a write 
+   // cannot cache the details it read before the write
+   private static long generation;
+   private static int invalidationCount;
+   
+   // return the cached details of the movie, or null
+   static Movie get(long id)
+   {
+      return movies.get(id);
+   }
+   
+   // return a value to pass to put once the movie has been read
+   static synchronized long getGeneration()
+   {
+      return generation;
+   }
+   
+   // cache movie unless a write invalidated any movie since readGeneration
+   static synchronized void put(Movie movie, long readGeneration)
+   {
+      if (readGeneration == generation)
+         movies.put(movie.id, movie);
+   }
+   
+   // drop a movie that was updated or deleted
+   static synchronized void invalidate(long id)
+   {
+      ++generation;
+      ++invalidationCount;
+      movies.remove(id);
+   }
+   
+   // drop every movie, e.g. after the whole database was replaced
+   static synchronized void invalidateAll()
+   {
+      ++generation;
+      ++invalidationCount;
+      movies.evictAll();
+   }
+   
+   // return hit, miss, eviction and invalidation counts for dumpsys
+   static synchronized String getStatistics()
+   {
+      return String.format(Locale.US,
+         "movie cache: %d/%d movies, %d hits, %d misses, " +
+         "%d evictions, %d invalidations%n", movies.size(), 
+         movies.maxSize(), movies.hitCount(), movies.missCount(), 
+         movies.evictionCount(), invalidationCount);
+   }
+   
+   private MovieCache()
+   {
+   }
+} // end class MovieCache
@@ -0,0 +1,151 @@
+// MovieChanges.java
+// Publishes each committed change to the movies table to GUI listeners
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+
+public final class MovieChanges
+{
+   // kinds of change
+   public static final int INSERTED = 0;
+   public static final int UPDATED = 1;
+   public static final int DELETED = 2;
+   public static final int RESET = 3; // any number of rows; reload
+   
+   // receives changes on the GUI thread, in the order they were committed
+   public interface Listener
+   {
+      // oldName is null for INSERTED, newName is null for DELETED and 
+      // both are null for RESET; version orders the changes, and a reader 
+      // whose snapshot version (getVersion) is at least this value 
+      // already saw the change
+      public void onMovieChanged(int type, long rowID, String oldName, 
+         String newName, long version);
+   }
+   
+   // a change waiting for the write it is part of to end
+   private static class Change
+   {
+      final int type;
+      final long rowID;
+      final String oldName;
+      final String newName;
+      
+      Change(int type, long rowID, String oldName, String newName)
+      {
+         this.type = type;
+         this.rowID = rowID;
+         this.oldName = oldName;
+         this.newName = newName;
+      }
+   } // end class Change
+   
+   // writes begun on a thread, and the changes of its nested writes
+   private static class Batch
+   {
+      int depth;
+      final List<Change> changes = new ArrayList<Change>();
+   }
+   
+   private static final Handler handler = new Handler(Looper.getMainLooper());
+   private static final List<Listener> listeners = new ArrayList<Listener>();
+   private static final ThreadLocal<Batch> batches = 
+      new ThreadLocal<Batch>()
+      {
+         @Override
+         protected Batch initialValue()
+         {
+            return new Batch();
+         }
+      };
+   private static long version; // changes with each published change
+   private static int writers; // outermost writes begun but not ended
+   
+   // register listener; call on the GUI thread
+   public static void addListener(Listener listener)
+   {
+      listeners.add(listener);
+   }
+   
+   // unregister listener; call on the GUI thread
+   public static void removeListener(Listener listener)
+   {
+      listeners.remove(listener);
+   }
+   
+   // return the version of the committed data, or -1 if a write is in 
+   // progress; a read is consistent with the changes published so far 
+   // only if this returns the same value before and after it
+   public static synchronized long getVersion()
+   {
+      return writers > 0 ? -1 : version;
+   }
+   
+   // call before a write transaction begins; writes begun inside another
+   // write on the same thread publish their changes when it ends
+   static synchronized void beginWrite()
+   {
+      if (batches.get().depth++ == 0)
+         ++writers;
+   }
+   
+   // call after the write transaction ends to publish its change; pass 
+   // RESET if the transaction did not commit or changed many rows
+   static synchronized void endWrite(int type, long rowID, 
+      String oldName, String newName)
+   {
+      Batch batch = batches.get();
+      batch.changes.add(new Change(type, rowID, oldName, newName));
+      
+      if (--batch.depth == 0)
+         publish(batch);
+   }
+   
+   // call after a transaction enclosing other writes ends
+   static synchronized void endBatch(boolean committed)
+   {
+      Batch batch = batches.get();
+      
+      if (!committed) // the enclosed changes were rolled back
+      {
+         batch.changes.clear();
+         batch.changes.add(new Change(RESET, -1, null, null));
+      }
+      
+      if (--batch.depth == 0)
+         publish(batch);
+   }
+   
+   // post a finished write's changes to the listeners
+   private static void publish(Batch batch)
+   {
+      --writers;
+      
+      // posted while synchronized so changes arrive in version order
+      for (final Change change : batch.changes)
+      {
+         final long changeVersion = ++version;
+         handler.post(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               for (Listener listener : 
+                  listeners.toArray(new Listener[listeners.size()]))
+                  listener.onMovieChanged(change.type, change.rowID, 
+                     change.oldName, change.newName, changeVersion);
+            }
+         });
+      }
+      
+      batch.changes.clear();
+   } // end method publish
+   
+   private MovieChanges()
+   {
+   }
+} // end class MovieChanges
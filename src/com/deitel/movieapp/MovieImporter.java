@@ -0,0 +1,622 @@
+// MovieImporter.java
+// Streams movies from CSV or JSON files into the database in batches
+package com.deitel.movieapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+public class MovieImporter
+{
+   // callback method for reporting import progress
+   public interface ImportProgressListener
+   {
+      // called after each committed batch
+      public void onProgress(long rowsImported, long bytesRead,
+         long totalBytes, long rowsPerSecond);
+   }
+
+   // rows committed per transaction
+   public static final int DEFAULT_BATCH_SIZE = 5000;
+
+   // columns accepted in a CSV header or JSON object, in insert order
+   static final String[] COLUMNS =
+      { "name", "director", "writer", "actor", "actress", "genre", "year" };
+   private static final int YEAR = 6; // index of year in COLUMNS
+
+   // a backup's rows also carry each movie's rowID, which names its 
+   // poster file, and its poster; other sources leave them null
+   static final int ROW_ID = COLUMNS.length;
+   static final int POSTER = COLUMNS.length + 1;
+   static final int ROW_LENGTH = COLUMNS.length + 2;
+
+   // people are staged in the movies columns that held them before schema
+   // version 4, then moved into people and credits a batch at a time
+   private static final String INSERT_SQL = "INSERT INTO movies " +
+      "(name, director, writer, actor, actress, genre, year, match_hash, " +
+      "_id, poster) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+   private static final String INDEX_BATCH_SQL = "INSERT INTO movies_fts " +
+      "(docid, " + MovieSchema.SEARCH_COLUMNS + ") SELECT _id, " + 
+      MovieSchema.SEARCH_COLUMNS + " FROM movies WHERE _id >= ?";
+
+   private static final int BUFFER_SIZE = 64 * 1024; // bytes read at once
+   
+   // imports at least this large rebuild indexes after the last batch
+   private static final long DEFER_INDEX_BYTES = 1024 * 1024;
+
+   private final DatabaseConnector databaseConnector;
+   private ImportProgressListener listener;
+   private int batchSize = DEFAULT_BATCH_SIZE;
+   private long rowsSkipped; // rows without the required name
+   private boolean skipDuplicates = true;
+   private long duplicatesSkipped; // rows matching a saved movie
+   private boolean replaceAll; // delete every movie before inserting
+   private volatile boolean cancelled;
+
+   // public constructor for MovieImporter
+   public MovieImporter(Context context)
+   {
+      databaseConnector = new DatabaseConnector(context);
+   }
+
+   // set the listener notified after each batch
+   public void setProgressListener(ImportProgressListener listener)
+   {
+      this.listener = listener;
+   }
+
+   // set the number of rows committed per transaction
+   public void setBatchSize(int batchSize)
+   {
+      this.batchSize = Math.max(1, batchSize);
+   }
+
+   // return the number of rows skipped by the last import
+   public long getRowsSkipped()
+   {
+      return rowsSkipped;
+   }
+
+   // set whether rows duplicating a movie already saved, or an earlier 
+   // row, are skipped; a restore keeps every row
+   public void setSkipDuplicates(boolean skipDuplicates)
+   {
+      this.skipDuplicates = skipDuplicates;
+   }
+
+   // return the number of duplicate rows skipped by the last import
+   public long getDuplicatesSkipped()
+   {
+      return duplicatesSkipped;
+   }
+
+   // set whether the import replaces every movie; the delete and all 
+   // batches then commit together, so a failed, interrupted or cancelled
+   // import leaves the old movies in place, and rows keep their rowIDs
+   public void setReplaceAll(boolean replaceAll)
+   {
+      this.replaceAll = replaceAll;
+   }
+
+   // stop the running import after its current batch commits
+   public void cancel()
+   {
+      cancelled = true;
+   }
+
+   // imports a .json file, or a .csv file with a header row; returns the
+   // number of movies inserted
+   public long importFile(File file) throws IOException
+   {
+      boolean json =
+         file.getName().toLowerCase(Locale.US).endsWith(".json");
+      InputStream input = new FileInputStream(file);
+
+      try
+      {
+         return importStream(input, file.length(), json);
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   // imports movies from a stream of CSV or JSON data; totalBytes is only
+   // used for progress reporting and may be -1 if unknown
+   public long importStream(InputStream input, long totalBytes,
+      boolean json) throws IOException
+   {
+      CountingInputStream countingInput = new CountingInputStream(input);
+      Reader reader = new BufferedReader(
+         new InputStreamReader(countingInput, "UTF-8"), BUFFER_SIZE);
+      RowSource rows =
+         json ? new JsonRowSource(reader) : new CsvRowSource(reader);
+      return importRows(rows, countingInput, totalBytes);
+   }
+   
+   // imports the rows of source, whose bytes are read through 
+   // countingInput; used by importStream and MovieBackup's restore
+   long importRows(RowSource rows, CountingInputStream countingInput, 
+      long totalBytes) throws IOException
+   {
+      if (!replaceAll)
+         return insertRows(rows, countingInput, totalBytes);
+      
+      // the batches' transactions nest inside this one
+      databaseConnector.open();
+      SQLiteDatabase database = databaseConnector.getDatabase();
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      boolean committed = false;
+      
+      try
+      {
+         databaseConnector.deleteAllMovies();
+         long rowsImported = insertRows(rows, countingInput, totalBytes);
+         
+         if (!cancelled)
+         {
+            database.setTransactionSuccessful();
+            committed = true;
+         }
+         
+         return rowsImported;
+      }
+      finally
+      {
+         database.endTransaction();
+         databaseConnector.close();
+         MovieChanges.endBatch(committed);
+      }
+   } // end method importRows
+   
+   // inserts the rows of source in batches; returns the number inserted
+   private long insertRows(RowSource rows, 
+      CountingInputStream countingInput, long totalBytes) throws IOException
+   {
+      cancelled = false;
+      rowsSkipped = 0;
+      duplicatesSkipped = 0;
+      long rowsImported = 0;
+      long start = SystemClock.elapsedRealtime();
+      String[] row = new String[ROW_LENGTH];
+
+      databaseConnector.open();
+      SQLiteDatabase database = databaseConnector.getDatabase();
+
+      // duplicates are looked up in the match hash index, which is kept 
+      // through the import; until a migration has built it, none are
+      boolean checkDuplicates = skipDuplicates && 
+         hasIndex(database, MovieSchema.MATCH_HASH_INDEX);
+      
+      // for large files, rebuilding each index once is far cheaper than
+      // updating it for every inserted row
+      List<String> indexes = totalBytes < 0 || totalBytes >= DEFER_INDEX_BYTES ?
+         dropSecondaryIndexes(database, 
+            checkDuplicates ? MovieSchema.MATCH_HASH_INDEX : null) : 
+         new ArrayList<String>();
+      SQLiteStatement insert = database.compileStatement(INSERT_SQL);
+      SQLiteStatement countMatches = 
+         database.compileStatement(MovieQueries.COUNT_MATCHES);
+
+      try
+      {
+         boolean more = true;
+
+         while (more && !cancelled)
+         {
+            int count = 0;
+            long firstRowID = -1; // first movie inserted by this batch
+            long lastRowID = -1; // last movie inserted by this batch
+            database.beginTransactionNonExclusive();
+            MovieChanges.beginWrite();
+
+            try
+            {
+               while (count < batchSize && (more = rows.next(row)))
+               {
+                  // a name is required, as in AddEditFragment
+                  if (row[0] == null || row[0].trim().length() == 0)
+                  {
+                     ++rowsSkipped;
+                     continue;
+                  }
+
+                  long matchHash = MovieKeys.matchHash(row[0], row[YEAR]);
+                  
+                  // earlier rows of this batch are in the index too
+                  if (checkDuplicates && 
+                     isDuplicate(database, countMatches, matchHash, row))
+                  {
+                     ++duplicatesSkipped;
+                     continue;
+                  }
+
+                  for (int i = 0; i < COLUMNS.length; ++i)
+                  {
+                     // a blank year is NULL in the INTEGER year column
+                     if (row[i] == null || 
+                        (i == YEAR && row[i].trim().length() == 0))
+                        insert.bindNull(i + 1);
+                     else
+                        insert.bindString(i + 1, row[i]);
+                  }
+
+                  insert.bindLong(COLUMNS.length + 1, matchHash);
+
+                  // rowIDs are kept only in an emptied table, where they
+                  // cannot collide; sources list them in ascending order
+                  if (replaceAll && row[ROW_ID] != null)
+                     insert.bindLong(COLUMNS.length + 2, 
+                        Long.parseLong(row[ROW_ID]));
+                  else
+                     insert.bindNull(COLUMNS.length + 2);
+
+                  if (row[POSTER] != null)
+                     insert.bindString(COLUMNS.length + 3, row[POSTER]);
+                  else
+                     insert.bindNull(COLUMNS.length + 3);
+
+                  lastRowID = insert.executeInsert();
+                  
+                  if (firstRowID < 0)
+                     firstRowID = lastRowID;
+                  
+                  ++count;
+               }
+
+               // index the whole batch for search in one statement; the
+               // transaction keeps other writers out, so every movie from
+               // firstRowID on was inserted by this batch
+               if (firstRowID >= 0)
+               {
+                  database.execSQL(
+                     INDEX_BATCH_SQL, new Object[] { firstRowID });
+                  
+                  // then move the batch's people into people and credits
+                  DatabaseConnector.moveLegacyCredits(
+                     database, firstRowID, lastRowID);
+               }
+
+               database.setTransactionSuccessful();
+            }
+            finally
+            {
+               database.endTransaction();
+               
+               // too many rows for the list to apply one by one
+               MovieChanges.endWrite(MovieChanges.RESET, -1, null, null);
+            }
+
+            rowsImported += count;
+
+            if (listener != null)
+            {
+               long elapsed =
+                  Math.max(1, SystemClock.elapsedRealtime() - start);
+               listener.onProgress(rowsImported, countingInput.count,
+                  totalBytes, rowsImported * 1000 / elapsed);
+            }
+         }
+      }
+      finally
+      {
+         insert.close();
+         countMatches.close();
+         restoreIndexes(database, indexes);
+         databaseConnector.close();
+      }
+
+      return rowsImported;
+   } // end method insertRows
+
+   // return true if row matches a saved movie once normalized by 
+   // MovieKeys; countMatches counts the movies with its matchHash
+   private static boolean isDuplicate(SQLiteDatabase database, 
+      SQLiteStatement countMatches, long matchHash, String[] row)
+   {
+      countMatches.bindLong(1, matchHash);
+      
+      if (countMatches.simpleQueryForLong() == 0)
+         return false; // the usual case, answered by the index alone
+      
+      String matchKey = MovieKeys.matchKey(row[0], row[YEAR]);
+      Cursor cursor = database.rawQuery(MovieQueries.SELECT_MATCHES, 
+         new String[] { String.valueOf(matchHash) });
+      
+      try
+      {
+         while (cursor.moveToNext())
+         {
+            if (matchKey.equals(MovieKeys.matchKey(cursor.getString(1), 
+               cursor.getString(2))))
+               return true;
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+      
+      return false;
+   } // end method isDuplicate
+   
+   // return true if the named index exists
+   private static boolean hasIndex(SQLiteDatabase database, String name)
+   {
+      return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " +
+         "sqlite_master WHERE type='index' AND name=?", 
+         new String[] { name }) > 0;
+   }
+   
+   // drops the movies table's secondary indexes except keep, which may be
+   // null, and returns the SQL that recreates them
+   private static List<String> dropSecondaryIndexes(SQLiteDatabase database,
+      String keep)
+   {
+      List<String> names = new ArrayList<String>();
+      List<String> indexes = new ArrayList<String>();
+      Cursor cursor = database.rawQuery("SELECT name, sql FROM sqlite_master" +
+         " WHERE type='index' AND tbl_name='movies' AND sql IS NOT NULL",
+         null);
+
+      try
+      {
+         while (cursor.moveToNext())
+         {
+            if (cursor.getString(0).equals(keep))
+               continue;
+            
+            names.add(cursor.getString(0));
+            indexes.add(cursor.getString(1));
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+
+      for (String name : names)
+         database.execSQL("DROP INDEX IF EXISTS " + name);
+
+      return indexes;
+   }
+
+   // recreates the indexes dropped before the import
+   private static void restoreIndexes(SQLiteDatabase database,
+      List<String> indexes)
+   {
+      for (String sql : indexes)
+         database.execSQL(sql);
+   }
+
+   // returns the COLUMNS index of the named column, or -1 if unknown
+   private static int columnIndex(String name)
+   {
+      for (int i = 0; i < COLUMNS.length; ++i)
+      {
+         if (COLUMNS[i].equalsIgnoreCase(name))
+            return i;
+      }
+
+      return -1;
+   }
+
+   // supplies one row of column values at a time
+   interface RowSource
+   {
+      // fills row (ordered as COLUMNS, then ROW_ID and POSTER) and 
+      // returns false at end of input
+      public boolean next(String[] row) throws IOException;
+   }
+
+   // reads RFC 4180 CSV whose header row names the columns
+   private static class CsvRowSource implements RowSource
+   {
+      private final Reader reader;
+      private final char[] buffer = new char[BUFFER_SIZE];
+      private int position; // next char to return from buffer
+      private int limit; // number of valid chars in buffer
+      private final StringBuilder field = new StringBuilder();
+      private final List<String> fields = new ArrayList<String>();
+      private final int[] columnIndexes; // COLUMNS index of each CSV field
+
+      // constructor reads the header row
+      public CsvRowSource(Reader reader) throws IOException
+      {
+         this.reader = reader;
+
+         if (!readRecord())
+            throw new IOException("CSV file has no header row");
+
+         columnIndexes = new int[fields.size()];
+
+         for (int i = 0; i < columnIndexes.length; ++i)
+            columnIndexes[i] = columnIndex(fields.get(i).trim());
+      }
+
+      @Override
+      public boolean next(String[] row) throws IOException
+      {
+         do // skip blank lines
+         {
+            if (!readRecord())
+               return false;
+         } while (fields.size() == 1 && fields.get(0).length() == 0);
+
+         Arrays.fill(row, null);
+
+         for (int i = 0; i < fields.size() && i < columnIndexes.length; ++i)
+         {
+            if (columnIndexes[i] >= 0)
+               row[columnIndexes[i]] = fields.get(i);
+         }
+
+         return true;
+      }
+
+      // reads one record into fields; returns false at end of input
+      private boolean readRecord() throws IOException
+      {
+         fields.clear();
+         field.setLength(0);
+         int c = read();
+
+         if (c == -1)
+            return false;
+
+         boolean quoted = false;
+
+         while (true)
+         {
+            if (quoted)
+            {
+               if (c == -1)
+                  throw new IOException("unterminated quoted CSV field");
+
+               if (c == '"')
+               {
+                  c = read();
+
+                  if (c != '"') // closing quote; reprocess next char
+                  {
+                     quoted = false;
+                     continue;
+                  }
+               }
+
+               field.append((char) c);
+            }
+            else if (c == '"' && field.length() == 0)
+               quoted = true;
+            else if (c == ',')
+            {
+               fields.add(field.toString());
+               field.setLength(0);
+            }
+            else if (c == '\n' || c == -1)
+               break;
+            else if (c != '\r')
+               field.append((char) c);
+
+            c = read();
+         }
+
+         fields.add(field.toString());
+         return true;
+      } // end method readRecord
+
+      // returns the next char or -1 at end of input
+      private int read() throws IOException
+      {
+         if (position == limit)
+         {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+
+            if (limit <= 0)
+            {
+               limit = 0;
+               return -1;
+            }
+         }
+
+         return buffer[position++];
+      }
+   } // end class CsvRowSource
+
+   // reads a JSON array of objects keyed by column name
+   private static class JsonRowSource implements RowSource
+   {
+      private final JsonReader reader;
+
+      // constructor consumes the start of the array
+      public JsonRowSource(Reader reader) throws IOException
+      {
+         this.reader = new JsonReader(reader);
+         this.reader.beginArray();
+      }
+
+      @Override
+      public boolean next(String[] row) throws IOException
+      {
+         if (!reader.hasNext())
+         {
+            reader.endArray();
+            return false;
+         }
+
+         Arrays.fill(row, null);
+         reader.beginObject();
+
+         while (reader.hasNext())
+         {
+            int column = columnIndex(reader.nextName());
+
+            if (column < 0)
+               reader.skipValue(); // not a movie column
+            else if (reader.peek() == JsonToken.NULL)
+               reader.nextNull();
+            else
+               row[column] = reader.nextString(); // also reads numbers
+         }
+
+         reader.endObject();
+         return true;
+      }
+   } // end class JsonRowSource
+
+   // counts bytes read so progress can be reported against file size
+   static class CountingInputStream extends FilterInputStream
+   {
+      private long count; // bytes read so far
+
+      public CountingInputStream(InputStream input)
+      {
+         super(input);
+      }
+
+      @Override
+      public int read() throws IOException
+      {
+         int b = super.read();
+
+         if (b != -1)
+            ++count;
+
+         return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length)
+         throws IOException
+      {
+         int read = super.read(buffer, offset, length);
+
+         if (read > 0)
+            count += read;
+
+         return read;
+      }
+   } // end class CountingInputStream
+} // end class MovieImporter
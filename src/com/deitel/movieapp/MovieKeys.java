@@ -0,0 +1,83 @@
+// MovieKeys.java
+// Normalized keys under which near-duplicate movies compare equal
+package com.deitel.movieapp;
+
+import java.text.Normalizer;
+
+final class MovieKeys
+{
+   // FNV-1a, 64-bit
+   private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+
+   // return the name case-folded and without accents, punctuation or
+   // spaces, so "The Matrix", "the matrix." and "THE  MATRIX" match
+   static String normalizeName(String name)
+   {
+      if (name == null)
+         return "";
+
+      // NFKD splits accented letters into a letter and a combining mark
+      String decomposed = Normalizer.normalize(name, Normalizer.Form.NFKD);
+      StringBuilder normalized = new StringBuilder(decomposed.length());
+
+      for (int i = 0; i < decomposed.length(); )
+      {
+         int c = decomposed.codePointAt(i);
+         i += Character.charCount(c);
+
+         if (Character.isLetterOrDigit(c))
+            normalized.appendCodePoint(
+               Character.toLowerCase(Character.toUpperCase(c)));
+      }
+
+      return normalized.toString();
+   } // end method normalizeName
+
+   // return the key two movies share if they are duplicates: the
+   // normalized name and the year, which may be blank
+   static String matchKey(String name, String year)
+   {
+      return normalizeName(name) + '|' + normalizeYear(year);
+   }
+
+   // return the year as the INTEGER year column reads back, e.g. "1999"
+   // for " 01999", or trimmed if it is not a number
+   private static String normalizeYear(String year)
+   {
+      if (year == null)
+         return "";
+
+      year = year.trim();
+
+      try
+      {
+         return String.valueOf(Long.parseLong(year));
+      }
+      catch (NumberFormatException e)
+      {
+         return year;
+      }
+   }
+
+   // return the hash of matchKey stored in the indexed match_hash column;
+   // movies with equal hashes are duplicates if their keys also match
+   static long matchHash(String name, String year)
+   {
+      String key = matchKey(name, year);
+      long hash = FNV_OFFSET_BASIS;
+
+      for (int i = 0; i < key.length(); ++i)
+      {
+         char c = key.charAt(i);
+         hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+         hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+      }
+
+      return hash;
+   }
+
+   private MovieKeys()
+   {
+   }
+} // end class MovieKeys
@@ -3,20 +3,39 @@
 package com.deitel.movieapp;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
 import android.app.ListFragment;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.database.Cursor;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MenuItem.OnActionExpandListener;
 import android.view.View;
+import android.view.ViewTreeObserver.OnPreDrawListener;
+import android.widget.AbsListView;
+import android.widget.AbsListView.MultiChoiceModeListener;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.CursorAdapter;
 import android.widget.ListView;
+import android.widget.SearchView;
+import android.widget.SearchView.OnQueryTextListener;
 import android.widget.SimpleCursorAdapter;
+import android.widget.Toast;
 
 public class MovieListFragment extends ListFragment
 {
@@ -28,12 +47,41 @@ public class MovieListFragment extends ListFragment
 
       // called when user decides to add a Movie
       public void onAddMovie();
+      
+      // called when user asks for the library's statistics
+      public void onShowStatistics();
    }
    
    private MovieListFragmentListener listener; 
    
    private ListView movieListView; // the ListActivity's ListView
-   private CursorAdapter movieAdapter; // adapter for ListView
+   private PagedMovieAdapter movieAdapter; // adapter for ListView
+   
+   // wait this long after the last keystroke before searching
+   private static final long SEARCH_DELAY_MILLIS = 250;
+   
+   // most search results displayed
+   private static final int SEARCH_LIMIT = 200;
+   
+   // rows beyond each edge of the screen whose details are prefetched
+   private static final int PREFETCH_DETAIL_ROWS = 10;
+   
+   // menu items of the sort orders, indexed by MovieListMode sort
+   private static final int[] SORT_ITEMS = { R.id.action_sort_title, 
+      R.id.action_sort_year, R.id.action_sort_director, 
+      R.id.action_sort_recent };
+   
+   // sort order and filters of the movie list; kept with the fragment
+   private MovieListMode listMode = MovieListMode.DEFAULT;
+   
+   private SimpleCursorAdapter searchAdapter; // adapter for search results
+   private final Handler searchHandler = new Handler(); // debounces typing
+   private String searchQuery; // text currently in the SearchView
+   private SearchQuery searchTask; // search in progress, or null
+   private long[] prefetchedIDs = {}; // rows whose details were prefetched
+   private long prefetchedGeneration = -1; // MovieCache generation then
+   private final Set<Long> selectedIDs = // rows selected for deletion
+      new LinkedHashSet<Long>();
    
    // set MovieListFragmentListener when fragment attached   
    @Override
@@ -43,12 +91,16 @@ public class MovieListFragment extends ListFragment
       listener = (MovieListFragmentListener) activity;
    }
 
-   // remove MovieListFragmentListener when Fragment detached
+   // remove MovieListFragmentListener and cancel queries when detached
    @Override
    public void onDetach()
    {
       super.onDetach();
       listener = null;
+      QueryScheduler.getInstance(getActivity()).cancelAll(this);
+      
+      if (movieAdapter != null)
+         movieAdapter.cancel();
    }
 
    // called after View is created
@@ -65,16 +117,46 @@ public class MovieListFragment extends ListFragment
       // get ListView reference and configure ListView
       movieListView = getListView(); 
       movieListView.setOnItemClickListener(viewMovieListener);      
-      movieListView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+      movieListView.setOnScrollListener(prefetchListener);
+      movieListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+      movieListView.setMultiChoiceModeListener(selectionListener);
+      movieListView.setFastScrollEnabled(true); // jump by section index
+      
+      // adapter loads movie names a page at a time as the list scrolls
+      // and applies each saved change to the rows it already holds
+      movieAdapter = new PagedMovieAdapter(getActivity());
+      setListAdapter(movieAdapter); // set adapter that supplies data
+      MovieChanges.addListener(movieAdapter);
+      MovieWriter.getInstance(getActivity()).addListener(movieAdapter);
+      movieAdapter.setMode(listMode); // loads the list
+      movieListView.getViewTreeObserver().addOnPreDrawListener(
+         firstRenderListener);
       
-      // map each movie's name to a TextView in the ListView layout
+      // map each search result's name to a TextView in the ListView layout
       String[] from = new String[] { "name" };
       int[] to = new int[] { android.R.id.text1 };
-      movieAdapter = new SimpleCursorAdapter(getActivity(), 
+      searchAdapter = new SimpleCursorAdapter(getActivity(), 
          android.R.layout.simple_list_item_1, null, from, to, 0);
-      setListAdapter(movieAdapter); // set adapter that supplies data
    }
 
+   // reports how long after process start the list first drew rows
+   OnPreDrawListener firstRenderListener = new OnPreDrawListener()
+   {
+      @Override
+      public boolean onPreDraw()
+      {
+         if (movieAdapter.isLoaded())
+         {
+            MovieApplication.reportFirstRender(
+               movieAdapter.isShowingSavedRows());
+            movieListView.getViewTreeObserver().removeOnPreDrawListener(
+               this);
+         }
+         
+         return true; // draw
+      }
+   }; // end firstRenderListener
+   
    // responds to the user touching a Movie's name in the ListView
    OnItemClickListener viewMovieListener = new OnItemClickListener() 
    {
@@ -82,80 +164,615 @@ public class MovieListFragment extends ListFragment
       public void onItemClick(AdapterView<?> parent, View view, 
          int position, long id) 
       {
-         listener.onMovieSelected(id); // pass selection to MainActivity
+         // -1 until the row's page has loaded; a movie whose insert is 
+         // still queued has a lower, temporary rowID
+         if (id != -1)
+            listener.onMovieSelected(id); // pass selection to MainActivity
       } 
    }; // end viewMovieListener
 
-   // when fragment resumes, use a GetMoviesTask to load Movies 
+   // long-pressing a Movie starts selecting Movies to delete together
+   MultiChoiceModeListener selectionListener = new MultiChoiceModeListener()
+   {
+      @Override
+      public boolean onCreateActionMode(ActionMode mode, Menu menu)
+      {
+         mode.getMenuInflater().inflate(
+            R.menu.fragment_movie_list_select_menu, menu);
+         selectedIDs.clear();
+         return true;
+      }
+      
+      @Override
+      public boolean onPrepareActionMode(ActionMode mode, Menu menu)
+      {
+         return false; // the menu never changes
+      }
+      
+      @Override
+      public void onItemCheckedStateChanged(ActionMode mode, int position,
+         long id, boolean checked)
+      {
+         if (id == -1) // row's page has not loaded
+         {
+            if (checked)
+               movieListView.setItemChecked(position, false);
+            
+            return;
+         }
+         
+         if (checked)
+            selectedIDs.add(id);
+         else
+            selectedIDs.remove(id);
+         
+         mode.setTitle(getString(R.string.selected_count, 
+            selectedIDs.size()));
+      }
+      
+      @Override
+      public boolean onActionItemClicked(ActionMode mode, MenuItem item)
+      {
+         if (item.getItemId() != R.id.action_delete_selected)
+            return false;
+         
+         confirmDeleteSelected(mode);
+         return true;
+      }
+      
+      @Override
+      public void onDestroyActionMode(ActionMode mode)
+      {
+         selectedIDs.clear();
+      }
+   }; // end selectionListener
+   
+   // confirm, then delete every selected Movie in one transaction; the 
+   // list drops the rows once the delete commits
+   private void confirmDeleteSelected(final ActionMode mode)
+   {
+      final long[] ids = new long[selectedIDs.size()];
+      int i = 0;
+      
+      for (long id : selectedIDs)
+         ids[i++] = id;
+      
+      // DialogFragment to confirm deletion of the selected Movies
+      DialogFragment confirmDelete = new DialogFragment()
+      {
+         // create an AlertDialog and return it
+         @Override
+         public Dialog onCreateDialog(Bundle bundle)
+         {
+            AlertDialog.Builder builder = 
+               new AlertDialog.Builder(getActivity());
+            builder.setTitle(R.string.confirm_title); 
+            builder.setMessage(getResources().getQuantityString(
+               R.plurals.confirm_message_selected, ids.length, ids.length));
+            builder.setPositiveButton(R.string.button_delete,
+               new DialogInterface.OnClickListener()
+               {
+                  @Override
+                  public void onClick(DialogInterface dialog, int button)
+                  {
+                     final Context context = 
+                        getActivity().getApplicationContext();
+                     MovieWriter.getInstance(getActivity()).deleteMovies(
+                        ids, new MovieWriter.DeleteCallback()
+                        {
+                           @Override
+                           public void onDeleted(int count)
+                           {
+                              if (count == -1)
+                                 Toast.makeText(context, 
+                                    R.string.error_deleting, 
+                                    Toast.LENGTH_LONG).show();
+                           }
+                        }); // end call to deleteMovies
+                     
+                     mode.finish(); // end selecting
+                  }
+               });
+            builder.setNegativeButton(R.string.button_cancel, null);
+            return builder.create(); // return the AlertDialog
+         }
+      }; // end DialogFragment anonymous inner class
+      
+      confirmDelete.show(getFragmentManager(), "confirm delete selected");
+   } // end method confirmDeleteSelected
+   
+   // prefetches the details of the rows around the screen whenever the
+   // list comes to rest, so touching one opens it without a query
+   OnScrollListener prefetchListener = new OnScrollListener()
+   {
+      private int scrollState = SCROLL_STATE_IDLE;
+      
+      @Override
+      public void onScrollStateChanged(AbsListView view, int scrollState)
+      {
+         this.scrollState = scrollState;
+         
+         if (scrollState == SCROLL_STATE_IDLE)
+            prefetchDetails();
+      }
+      
+      // also called when rows arrive or change without scrolling
+      @Override
+      public void onScroll(AbsListView view, int firstVisibleItem, 
+         int visibleItemCount, int totalItemCount)
+      {
+         if (scrollState == SCROLL_STATE_IDLE)
+            prefetchDetails();
+      }
+   }; // end prefetchListener
+   
+   // read the details of the loaded rows on screen and just beyond it 
+   // into MovieCache with one batched query
+   private void prefetchDetails()
+   {
+      int first = Math.max(0, 
+         movieListView.getFirstVisiblePosition() - PREFETCH_DETAIL_ROWS);
+      int last = Math.min(movieListView.getCount() - 1, 
+         movieListView.getLastVisiblePosition() + PREFETCH_DETAIL_ROWS);
+      long[] ids = new long[Math.max(0, last - first + 1)];
+      int count = 0;
+      
+      for (int position = first; position <= last; ++position)
+      {
+         long id = movieListView.getItemIdAtPosition(position);
+         
+         if (id > 0) // loaded and written to the database
+            ids[count++] = id;
+      }
+      
+      ids = Arrays.copyOf(ids, count);
+      long generation = MovieCache.getGeneration();
+      
+      // unchanged rows whose details no write has invalidated since
+      if (count == 0 || (generation == prefetchedGeneration && 
+         Arrays.equals(ids, prefetchedIDs)))
+         return;
+      
+      prefetchedIDs = ids;
+      prefetchedGeneration = generation;
+      final long[] prefetchIDs = ids;
+      
+      QueryScheduler.getInstance(getActivity()).submit(this, 
+         "prefetch details", QueryScheduler.PRIORITY_PREFETCH, 
+         new QueryScheduler.Query<Integer>()
+         {
+            @Override
+            protected Integer run(DatabaseConnector databaseConnector)
+            {
+               return databaseConnector.cacheMovies(
+                  prefetchIDs, prefetchIDs.length);
+            }
+            
+            @Override
+            protected void onResult(Integer result)
+            {
+               // the details wait in MovieCache for DetailsFragment
+            }
+         });
+   } // end method prefetchDetails
+   
+   // save the first screen of the list so the next start can draw it 
+   // before the database is open
    @Override
-   public void onResume() 
+   public void onPause()
    {
-      super.onResume(); 
-      new GetMoviesTask().execute((Object[]) null);
+      super.onPause();
+      movieAdapter.saveFirstScreen();
    }
 
-   // performs database query outside GUI thread
-   private class GetMoviesTask extends AsyncTask<Object, Object, Cursor> 
+   // when fragment's view is destroyed, cancel searching and close results
+   // and stop following changes to the list
+   @Override
+   public void onDestroyView()
    {
-      DatabaseConnector databaseConnector = 
-         new DatabaseConnector(getActivity());
+      endSearch();
+      MovieChanges.removeListener(movieAdapter);
+      MovieWriter.getInstance(getActivity()).removeListener(movieAdapter);
+      movieAdapter.cancel();
+      super.onDestroyView();
+   }
 
-      // open database and return Cursor for all Movies
+   // display this fragment's menu items
+   @Override
+   public void onCreateOptionsMenu(Menu menu, MenuInflater inflater)
+   {
+      super.onCreateOptionsMenu(menu, inflater);
+      inflater.inflate(R.menu.fragment_movie_list_menu, menu);
+      
+      // search as the user types; collapsing the SearchView ends the search
+      MenuItem searchItem = menu.findItem(R.id.action_search);
+      SearchView searchView = (SearchView) searchItem.getActionView();
+      searchView.setQueryHint(getString(R.string.hint_search));
+      searchView.setOnQueryTextListener(searchQueryListener);
+      searchItem.setOnActionExpandListener(searchExpandListener);
+   }
+   
+   // responds to each change of the SearchView's text
+   OnQueryTextListener searchQueryListener = new OnQueryTextListener()
+   {
       @Override
-      protected Cursor doInBackground(Object... params)
+      public boolean onQueryTextChange(String newText)
       {
-         databaseConnector.open();
-         return databaseConnector.getAllMovies(); 
-      } 
+         searchQuery = newText;
+         searchHandler.removeCallbacks(runSearch);
+         
+         if (DatabaseConnector.matchExpression(newText) == null)
+            showMovieList(); // nothing to search for
+         else
+            searchHandler.postDelayed(runSearch, SEARCH_DELAY_MILLIS);
+         
+         return true;
+      }
 
-      // use the Cursor returned from the doInBackground method
       @Override
-      protected void onPostExecute(Cursor result)
+      public boolean onQueryTextSubmit(String query)
       {
-         movieAdapter.changeCursor(result); // set the adapter's Cursor
-         databaseConnector.close();
-      } 
-   } // end class GetMoviesTask
+         onQueryTextChange(query);
+         searchHandler.removeCallbacks(runSearch);
+         runSearch.run(); // search now rather than after the delay
+         return true;
+      }
+   }; // end searchQueryListener
+   
+   // restores the full movie list when the SearchView collapses
+   OnActionExpandListener searchExpandListener = new OnActionExpandListener()
+   {
+      @Override
+      public boolean onMenuItemActionExpand(MenuItem item)
+      {
+         return true;
+      }
 
-   // when fragment stops, close Cursor and remove from MovieAdapter 
-   @Override
-   public void onStop() 
+      @Override
+      public boolean onMenuItemActionCollapse(MenuItem item)
+      {
+         endSearch();
+         return true;
+      }
+   }; // end searchExpandListener
+   
+   // starts a search for searchQuery, cancelling any stale search
+   private final Runnable runSearch = new Runnable()
+   {
+      @Override
+      public void run()
+      {
+         cancelSearch();
+         
+         if (DatabaseConnector.matchExpression(searchQuery) != null)
+         {
+            searchTask = new SearchQuery(searchQuery);
+            QueryScheduler.getInstance(getActivity()).submit(
+               MovieListFragment.this, "search", 
+               QueryScheduler.PRIORITY_VISIBLE, searchTask);
+         }
+      }
+   }; // end runSearch
+   
+   // performs the full-text search outside GUI thread
+   private class SearchQuery extends QueryScheduler.Query<Cursor>
    {
-      Cursor cursor = movieAdapter.getCursor(); // get current Cursor
-      movieAdapter.changeCursor(null); // adapter now has no Cursor
+      private final String query; // text typed by the user
       
-      if (cursor != null) 
-         cursor.close(); // release the Cursor's resources
+      public SearchQuery(String query)
+      {
+         this.query = query;
+      }
+
+      // return Cursor for the matching Movies
+      @Override
+      protected Cursor run(DatabaseConnector databaseConnector)
+      {
+         Cursor cursor = databaseConnector.searchMovies(
+            query, SEARCH_LIMIT, getCancellationSignal());
+         cursor.getCount(); // run the query here, not on the GUI thread
+         return cursor;
+      }
       
-      super.onStop();
-   } 
+      // close results that arrived after the search was cancelled
+      @Override
+      protected void onCancelled(Cursor result)
+      {
+         if (result != null)
+            result.close();
+      }
 
-   // display this fragment's menu items
+      // display the Cursor returned from the run method
+      @Override
+      protected void onResult(Cursor result)
+      {
+         searchTask = null;
+         searchAdapter.changeCursor(result); // closes the previous results
+         
+         if (getListAdapter() != searchAdapter)
+         {
+            setEmptyText(getResources().getString(R.string.no_matches));
+            setListAdapter(searchAdapter);
+         }
+      }
+   } // end class SearchQuery
+   
+   // cancels the search in progress, if any
+   private void cancelSearch()
+   {
+      if (searchTask != null)
+      {
+         searchTask.cancel(); // also stops SQLite if it is running
+         searchTask = null;
+      }
+   }
+   
+   // switches the ListView back to the paged list of all Movies
+   private void showMovieList()
+   {
+      cancelSearch();
+      
+      if (getListAdapter() != movieAdapter)
+      {
+         setEmptyText(getResources().getString(R.string.no_movies));
+         setListAdapter(movieAdapter);
+      }
+   }
+   
+   // leaves search mode and releases the search results
+   private void endSearch()
+   {
+      searchHandler.removeCallbacks(runSearch);
+      searchQuery = null;
+      showMovieList();
+      searchAdapter.changeCursor(null); // closes the results Cursor
+   }
+
+   // check the current sort order and offer to clear any filters
    @Override
-   public void onCreateOptionsMenu(Menu menu, MenuInflater inflater)
+   public void onPrepareOptionsMenu(Menu menu)
    {
-      super.onCreateOptionsMenu(menu, inflater);
-      inflater.inflate(R.menu.fragment_movie_list_menu, menu);
+      super.onPrepareOptionsMenu(menu);
+      menu.findItem(SORT_ITEMS[listMode.sort]).setChecked(true);
+      menu.findItem(R.id.action_filter_clear).setEnabled(
+         listMode.isFiltered());
    }
 
    // handle choice from options menu
    @Override
    public boolean onOptionsItemSelected(MenuItem item) 
    {
+      for (int sort = 0; sort < SORT_ITEMS.length; ++sort)
+      {
+         if (item.getItemId() == SORT_ITEMS[sort])
+         {
+            setListMode(listMode.withSort(sort));
+            return true;
+         }
+      }
+      
       switch (item.getItemId())
       {
+         case R.id.action_filter_genre:
+         case R.id.action_filter_decade:
+         case R.id.action_filter_director:
+            QueryScheduler.getInstance(getActivity()).submit(this, 
+               "filter choices", QueryScheduler.PRIORITY_VISIBLE, 
+               new FilterChoicesQuery(item.getItemId(), 
+                  getString(R.string.no_genre), 
+                  getString(R.string.no_year)));
+            return true;
+         case R.id.action_filter_clear:
+            setListMode(new MovieListMode(listMode.sort, null, null, null));
+            return true;
          case R.id.action_add:
             listener.onAddMovie();
             return true;
+         case R.id.action_statistics:
+            listener.onShowStatistics();
+            return true;
+         case R.id.action_find_duplicates:
+            QueryScheduler.getInstance(getActivity()).submit(this, 
+               "find duplicates", QueryScheduler.PRIORITY_BACKGROUND, 
+               new DuplicatesQuery());
+            return true;
       }
       
       return super.onOptionsItemSelected(item); // call super's method
    }
    
-   // update data set
+   // show the movie list in mode, leaving any search
+   private void setListMode(MovieListMode mode)
+   {
+      listMode = mode;
+      showMovieList();
+      movieAdapter.setMode(mode);
+      getActivity().invalidateOptionsMenu();
+   }
+   
+   // reads a filter's choices, with their movie counts, from the 
+   // statistics tables outside the GUI thread
+   private class FilterChoicesQuery 
+      extends QueryScheduler.Query<List<String>>
+   {
+      private final int filter; // menu item of the filter
+      private final String noGenre; // label for movies without a genre
+      private final String noYear; // label for movies without a year
+      
+      public FilterChoicesQuery(int filter, String noGenre, String noYear)
+      {
+         this.filter = filter;
+         this.noGenre = noGenre;
+         this.noYear = noYear;
+      }
+      
+      // return each choice's value followed by its label
+      @Override
+      protected List<String> run(DatabaseConnector databaseConnector)
+      {
+         Cursor cursor;
+         
+         if (filter == R.id.action_filter_genre)
+            cursor = databaseConnector.getGenreCounts();
+         else if (filter == R.id.action_filter_decade)
+            cursor = databaseConnector.getDecadeCounts();
+         else
+            cursor = databaseConnector.getDirectors();
+         
+         List<String> choices = new ArrayList<String>();
+         
+         try
+         {
+            while (cursor.moveToNext())
+            {
+               String value = cursor.getString(0);
+               String label = value;
+               
+               if (filter == R.id.action_filter_decade)
+                  label = cursor.getInt(0) == MovieListMode.NO_YEAR ? 
+                     noYear : value + "s";
+               else if (value.length() == 0)
+                  label = noGenre;
+               
+               choices.add(value);
+               choices.add(label + " (" + cursor.getInt(1) + ")");
+            }
+         }
+         finally
+         {
+            cursor.close();
+         }
+         
+         return choices;
+      } // end method run
+      
+      // let the user pick one of the choices
+      @Override
+      protected void onResult(List<String> result)
+      {
+         final String[] values = new String[result.size() / 2];
+         final String[] labels = new String[values.length];
+         
+         for (int i = 0; i < values.length; ++i)
+         {
+            values[i] = result.get(2 * i);
+            labels[i] = result.get(2 * i + 1);
+         }
+         
+         // DialogFragment listing the choices
+         DialogFragment chooseFilter = new DialogFragment()
+         {
+            // create an AlertDialog and return it
+            @Override
+            public Dialog onCreateDialog(Bundle bundle)
+            {
+               AlertDialog.Builder builder = 
+                  new AlertDialog.Builder(getActivity());
+               builder.setTitle(filter == R.id.action_filter_genre ? 
+                  R.string.filter_genre : filter == R.id.action_filter_decade ?
+                  R.string.filter_decade : R.string.filter_director);
+               builder.setItems(labels, new DialogInterface.OnClickListener()
+               {
+                  @Override
+                  public void onClick(DialogInterface dialog, int which)
+                  {
+                     applyFilter(filter, values[which]);
+                  }
+               });
+               return builder.create(); // return the AlertDialog
+            }
+         };
+         
+         chooseFilter.show(getFragmentManager(), "choose filter");
+      } // end method onResult
+   } // end class FilterChoicesQuery
+   
+   // scans the library for duplicate movies outside the GUI thread, 
+   // behind the reads of rows on screen
+   private class DuplicatesQuery 
+      extends QueryScheduler.Query<List<DuplicateScanner.Group>>
+   {
+      @Override
+      protected List<DuplicateScanner.Group> run(
+         DatabaseConnector databaseConnector)
+      {
+         return DuplicateScanner.scan(databaseConnector, 
+            getCancellationSignal());
+      }
+      
+      // list the groups; choosing one shows its most recently added copy,
+      // which can be deleted from its details
+      @Override
+      protected void onResult(final List<DuplicateScanner.Group> result)
+      {
+         if (result.isEmpty())
+         {
+            Toast.makeText(getActivity(), R.string.no_duplicates, 
+               Toast.LENGTH_SHORT).show();
+            return;
+         }
+         
+         final String[] labels = new String[result.size()];
+         
+         for (int i = 0; i < labels.length; ++i)
+         {
+            DuplicateScanner.Group group = result.get(i);
+            String name = group.year == null ? 
+               group.name : group.name + ", " + group.year;
+            labels[i] = getString(R.string.duplicate_group, name, 
+               group.ids.length);
+         }
+         
+         // DialogFragment listing the groups
+         DialogFragment chooseDuplicate = new DialogFragment()
+         {
+            // create an AlertDialog and return it
+            @Override
+            public Dialog onCreateDialog(Bundle bundle)
+            {
+               AlertDialog.Builder builder = 
+                  new AlertDialog.Builder(getActivity());
+               builder.setTitle(R.string.title_duplicates);
+               builder.setItems(labels, new DialogInterface.OnClickListener()
+               {
+                  @Override
+                  public void onClick(DialogInterface dialog, int which)
+                  {
+                     long[] ids = result.get(which).ids;
+                     listener.onMovieSelected(ids[ids.length - 1]);
+                  }
+               });
+               return builder.create(); // return the AlertDialog
+            }
+         };
+         
+         chooseDuplicate.show(getFragmentManager(), "choose duplicate");
+      } // end method onResult
+   } // end class DuplicatesQuery
+   
+   // narrow the list by a chosen genre, decade or director, keeping the
+   // other filters
+   private void applyFilter(int filter, String value)
+   {
+      MovieListMode mode = listMode;
+      
+      if (filter == R.id.action_filter_genre)
+         mode = new MovieListMode(mode.sort, value, mode.decade, 
+            mode.director);
+      else if (filter == R.id.action_filter_decade)
+         mode = new MovieListMode(mode.sort, mode.genre, 
+            Integer.valueOf(value), mode.director);
+      else
+         mode = new MovieListMode(mode.sort, mode.genre, mode.decade, 
+            value);
+      
+      setListMode(mode);
+   }
+   
+   // requery the data set, e.g. after the database was replaced
    public void updateMovieList()
    {
-      new GetMoviesTask().execute((Object[]) null);
+      movieAdapter.reload();
    }
 } // end class MovieListFragment
 
@@ -0,0 +1,163 @@
+// MovieListMode.java
+// The movie list's sort order and filters, and the SQL selecting them
+package com.deitel.movieapp;
+
+import java.util.List;
+
+final class MovieListMode
+{
+   // sort orders; each but SORT_RECENT has a covering index in 
+   // MovieSchema.CREATE_MOVIES_INDEXES, and SORT_RECENT reads the table
+   static final int SORT_TITLE = 0;
+   static final int SORT_YEAR = 1;
+   static final int SORT_DIRECTOR = 2;
+   static final int SORT_RECENT = 3; // newest first
+   
+   // the column each order sorts by before _id, and its collation
+   private static final String[] SORT_COLUMNS = 
+      { "name", "year", "sort_director", "_id" };
+   private static final String[] SORT_COLLATIONS = 
+      { " COLLATE NOCASE", "", " COLLATE NOCASE", "" };
+   
+   // decade value matching movies without a year
+   static final int NO_YEAR = -1;
+   
+   // every movie by title, the list's original order
+   static final MovieListMode DEFAULT = 
+      new MovieListMode(SORT_TITLE, null, null, null);
+   
+   final int sort;
+   final String genre; // only movies of this genre, '' for none, or null
+   final Integer decade; // only movies of this decade, NO_YEAR, or null
+   final String director; // only movies by this director, or null
+   
+   MovieListMode(int sort, String genre, Integer decade, String director)
+   {
+      this.sort = sort;
+      this.genre = genre;
+      this.decade = decade;
+      this.director = director;
+   }
+   
+   // return this mode sorted by sort
+   MovieListMode withSort(int sort)
+   {
+      return new MovieListMode(sort, genre, decade, director);
+   }
+   
+   // return true for the unfiltered list in title order, whose rows
+   // PagedMovieAdapter updates from change events and sections
+   boolean isDefault()
+   {
+      return sort == SORT_TITLE && !isFiltered();
+   }
+   
+   boolean isFiltered()
+   {
+      return genre != null || decade != null || director != null;
+   }
+   
+   // return true if both modes list the same movies
+   boolean hasSameFilters(MovieListMode other)
+   {
+      return equal(genre, other.genre) && equal(decade, other.decade) && 
+         equal(director, other.director);
+   }
+   
+   // return the column the list is sorted by, selected as each row's key
+   String keyColumn()
+   {
+      return SORT_COLUMNS[sort];
+   }
+   
+   // return the ORDER BY terms of the list, or of the list reversed
+   String orderBy(boolean reversed)
+   {
+      // recently added is _id descending
+      boolean descending = reversed != (sort == SORT_RECENT);
+      String direction = descending ? " DESC" : "";
+      
+      if (sort == SORT_RECENT)
+         return "_id" + direction;
+      
+      return keyColumn() + SORT_COLLATIONS[sort] + direction + ", _id" + 
+         direction;
+   }
+   
+   // return the condition selecting rows after (key, id), or before it if
+   // before is true; a null key is matched only by NULL sort values, 
+   // which sort first, so the caller reads on with nullKeys
+   String seek(boolean before, String key, long id, List<String> args)
+   {
+      // seek toward smaller values; recently added lists _id descending
+      boolean lower = before != (sort == SORT_RECENT);
+      
+      if (sort == SORT_RECENT)
+      {
+         args.add(String.valueOf(id));
+         return lower ? "_id<?" : "_id>?";
+      }
+      
+      String column = keyColumn();
+      String collation = SORT_COLLATIONS[sort];
+      String operator = lower ? "<" : ">";
+      
+      if (key == null)
+      {
+         args.add(String.valueOf(id));
+         return column + " IS NULL AND _id" + operator + "?";
+      }
+      
+      // the first term bounds the index range; the rest breaks ties
+      args.add(key);
+      args.add(key);
+      args.add(String.valueOf(id));
+      return column + operator + "=?" + collation + " AND (" + column + 
+         operator + "?" + collation + " OR _id" + operator + "?)";
+   }
+   
+   // return the condition selecting the rows with a NULL sort value, or
+   // with any other value
+   String nullKeys(boolean isNull)
+   {
+      return keyColumn() + (isNull ? " IS NULL" : " IS NOT NULL");
+   }
+   
+   // return true if rows can have a NULL sort value
+   boolean hasNullKeys()
+   {
+      return sort != SORT_RECENT;
+   }
+   
+   // add this mode's filters to conditions, binding their values to args
+   void addFilters(List<String> conditions, List<String> args)
+   {
+      if (genre != null)
+      {
+         conditions.add(String.format(MovieSchema.GENRE_KEY, "movies") + 
+            "=? COLLATE NOCASE");
+         args.add(genre);
+      }
+      
+      if (decade != null && decade == NO_YEAR)
+         conditions.add("year IS NULL");
+      else if (decade != null)
+      {
+         conditions.add("year>=? AND year<?");
+         args.add(String.valueOf(decade));
+         args.add(String.valueOf(decade + 10));
+      }
+      
+      if (director != null)
+      {
+         conditions.add("sort_director=? COLLATE NOCASE");
+         args.add(director);
+      }
+   } // end method addFilters
+   
+   // return true if two values are both null or equal
+   private static boolean equal(Object value1, Object value2)
+   {
+      return value1 == null ? value2 == null : value1.equals(value2);
+   }
+} // end class MovieListMode
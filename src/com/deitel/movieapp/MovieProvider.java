@@ -0,0 +1,313 @@
+// MovieProvider.java
+// ContentProvider front end to the UserMovies database
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+public class MovieProvider extends ContentProvider 
+   implements MovieChanges.Listener
+{
+   public static final String AUTHORITY = "com.deitel.movieapp.movies";
+   
+   // every movie, sorted by name; append a rowID for one movie
+   public static final Uri CONTENT_URI = 
+      Uri.parse("content://" + AUTHORITY + "/movies");
+   
+   // movies matching the "q" parameter as typed into a search box, e.g.
+   // movies/search?q=star%20wa&limit=50
+   public static final Uri SEARCH_URI = 
+      Uri.withAppendedPath(CONTENT_URI, "search");
+   
+   // MIME types of movie lists and single movies
+   public static final String CONTENT_TYPE = 
+      "vnd.android.cursor.dir/vnd.com.deitel.movie";
+   public static final String CONTENT_ITEM_TYPE = 
+      "vnd.android.cursor.item/vnd.com.deitel.movie";
+   
+   // most search results returned when no limit is given
+   private static final int DEFAULT_SEARCH_LIMIT = 200;
+   
+   // URI types
+   private static final int MOVIES = 1;
+   private static final int MOVIE_ID = 2;
+   private static final int SEARCH = 3;
+   private static final int PERSON_MOVIES = 4; // people/<name>/movies
+   
+   private static final UriMatcher uriMatcher = 
+      new UriMatcher(UriMatcher.NO_MATCH);
+   
+   // movies columns available to queries; people come from credits
+   private static final Map<String, String> movieColumns = 
+      new HashMap<String, String>();
+   
+   static
+   {
+      uriMatcher.addURI(AUTHORITY, "movies", MOVIES);
+      uriMatcher.addURI(AUTHORITY, "movies/search", SEARCH);
+      uriMatcher.addURI(AUTHORITY, "movies/#", MOVIE_ID);
+      uriMatcher.addURI(AUTHORITY, "people/*/movies", PERSON_MOVIES);
+      
+      for (String column : new String[] { "_id", "name", "genre", "year" })
+         movieColumns.put(column, column);
+      
+      for (int role = 0; role < MovieSchema.PERSON_COLUMNS.length; ++role)
+         movieColumns.put(MovieSchema.PERSON_COLUMNS[role], 
+            MovieQueries.personColumn(role));
+   }
+   
+   private DatabaseConnector databaseConnector; // open once first used
+   
+   // return the URI of one movie
+   public static Uri movieUri(long rowID)
+   {
+      return ContentUris.withAppendedId(CONTENT_URI, rowID);
+   }
+   
+   // return the URI of the movies crediting a person in any role
+   public static Uri personMoviesUri(String person)
+   {
+      return Uri.parse("content://" + AUTHORITY).buildUpon()
+         .appendPath("people").appendPath(person).appendPath("movies")
+         .build();
+   }
+   
+   // follow the database's changes; the database opens on first use
+   @Override
+   public boolean onCreate()
+   {
+      MovieChanges.addListener(this);
+      return true;
+   }
+   
+   // return the connector shared by all calls; it stays open for the 
+   // life of the process, so Cursors returned by query stay valid
+   private synchronized DatabaseConnector getConnector()
+   {
+      if (databaseConnector == null)
+      {
+         databaseConnector = new DatabaseConnector(getContext());
+         databaseConnector.open();
+      }
+      
+      return databaseConnector;
+   }
+   
+   @Override
+   public String getType(Uri uri)
+   {
+      switch (uriMatcher.match(uri))
+      {
+         case MOVIE_ID:
+            return CONTENT_ITEM_TYPE;
+         case MOVIES:
+         case SEARCH:
+         case PERSON_MOVIES:
+            return CONTENT_TYPE;
+      }
+      
+      return null;
+   }
+   
+   @Override
+   public Cursor query(Uri uri, String[] projection, String selection,
+      String[] selectionArgs, String sortOrder)
+   {
+      return query(uri, projection, selection, selectionArgs, sortOrder, 
+         null);
+   }
+
+   // Cursors are notified of changes to the movies they can contain: one
+   // movie's Cursor only of that movie, lists of any movie
+   @Override
+   public Cursor query(Uri uri, String[] projection, String selection,
+      String[] selectionArgs, String sortOrder, 
+      CancellationSignal cancellationSignal)
+   {
+      DatabaseConnector connector = getConnector();
+      Uri notificationUri = CONTENT_URI;
+      Cursor cursor;
+      
+      switch (uriMatcher.match(uri))
+      {
+         case MOVIE_ID:
+            notificationUri = uri;
+            // fall through
+         case MOVIES:
+            SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            builder.setTables("movies");
+            builder.setProjectionMap(movieColumns);
+            builder.setStrict(true);
+            
+            if (notificationUri == uri)
+               builder.appendWhere("_id=" + ContentUris.parseId(uri));
+            
+            if (projection == null) // a movie's details, or a list's names
+               projection = notificationUri == uri ? 
+                  movieColumns.keySet().toArray(new String[0]) :
+                  new String[] { "_id", "name" };
+            
+            if (sortOrder == null)
+               sortOrder = "name COLLATE NOCASE, _id";
+            
+            cursor = builder.query(connector.getDatabase(), projection, 
+               selection, selectionArgs, null, null, sortOrder, null, 
+               cancellationSignal);
+            break;
+         case SEARCH:
+            String limit = uri.getQueryParameter("limit");
+            String query = uri.getQueryParameter("q");
+            
+            if (DatabaseConnector.matchExpression(query) == null)
+               throw new IllegalArgumentException("No search words: " + uri);
+            
+            cursor = connector.searchMovies(query, parseLimit(limit),
+               cancellationSignal);
+            break;
+         case PERSON_MOVIES:
+            cursor = connector.getMoviesWithPerson(
+               uri.getPathSegments().get(1));
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+      }
+      
+      cursor.setNotificationUri(getContext().getContentResolver(), 
+         notificationUri);
+      return cursor;
+   } // end method query
+
+   // return the caller's search limit, or DEFAULT_SEARCH_LIMIT if it is
+   // missing or not a positive number
+   private static int parseLimit(String limit)
+   {
+      if (limit == null)
+         return DEFAULT_SEARCH_LIMIT;
+      
+      try
+      {
+         int rows = Integer.parseInt(limit.trim());
+         return rows > 0 ? rows : DEFAULT_SEARCH_LIMIT;
+      }
+      catch (NumberFormatException e)
+      {
+         return DEFAULT_SEARCH_LIMIT;
+      }
+   }
+
+   // insert a movie into CONTENT_URI; values are named like the columns
+   @Override
+   public Uri insert(Uri uri, ContentValues values)
+   {
+      if (uriMatcher.match(uri) != MOVIES)
+         throw new IllegalArgumentException("Cannot insert into: " + uri);
+      
+      long rowID = getConnector().insertMovie(values.getAsString("name"), 
+         values.getAsString("director"), values.getAsString("writer"), 
+         values.getAsString("actor"), values.getAsString("actress"), 
+         values.getAsString("genre"), values.getAsString("year"));
+      return rowID != -1 ? movieUri(rowID) : null;
+   }
+
+   // update the given values of one movie; others keep their values
+   @Override
+   public int update(Uri uri, ContentValues values, String selection,
+      String[] selectionArgs)
+   {
+      if (uriMatcher.match(uri) != MOVIE_ID || selection != null)
+         throw new IllegalArgumentException("Cannot update: " + uri);
+      
+      DatabaseConnector connector = getConnector();
+      long rowID = ContentUris.parseId(uri);
+      Movie movie = connector.getMovie(rowID);
+      
+      if (movie == null)
+         return 0;
+      
+      connector.updateMovie(rowID, 
+         value(values, "name", movie.name), 
+         value(values, "director", movie.director), 
+         value(values, "writer", movie.writer), 
+         value(values, "actor", movie.actor), 
+         value(values, "actress", movie.actress), 
+         value(values, "genre", movie.genre), 
+         value(values, "year", movie.year));
+      return 1;
+   }
+   
+   // return the named value, or oldValue if values does not contain it
+   private static String value(ContentValues values, String key, 
+      String oldValue)
+   {
+      return values.containsKey(key) ? values.getAsString(key) : oldValue;
+   }
+
+   // delete one movie
+   @Override
+   public int delete(Uri uri, String selection, String[] selectionArgs)
+   {
+      if (uriMatcher.match(uri) != MOVIE_ID || selection != null)
+         throw new IllegalArgumentException("Cannot delete: " + uri);
+      
+      DatabaseConnector connector = getConnector();
+      long rowID = ContentUris.parseId(uri);
+      
+      if (connector.getMovie(rowID) == null)
+         return 0;
+      
+      connector.deleteMovie(rowID);
+      return 1;
+   }
+   
+   // apply all operations in one transaction, so they commit together 
+   // and their change notifications are sent once it has committed
+   @Override
+   public ContentProviderResult[] applyBatch(
+      ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException
+   {
+      SQLiteDatabase database = getConnector().getDatabase();
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+      boolean committed = false;
+      
+      try
+      {
+         ContentProviderResult[] results = super.applyBatch(operations);
+         database.setTransactionSuccessful();
+         committed = true;
+         return results;
+      }
+      finally
+      {
+         database.endTransaction();
+         
+         // movies read between an operation and the commit may be stale
+         MovieCache.invalidateAll();
+         MovieChanges.endBatch(committed);
+      }
+   } // end method applyBatch
+   
+   // notify observers of the URIs a committed change affects
+   @Override
+   public void onMovieChanged(int type, long rowID, String oldName, 
+      String newName, long version)
+   {
+      getContext().getContentResolver().notifyChange(
+         type == MovieChanges.RESET ? CONTENT_URI : movieUri(rowID), null);
+   }
+} // end class MovieProvider
@@ -0,0 +1,115 @@
+// MovieQueries.java
+// SQL that DatabaseConnector issues to read and write single movies
+package com.deitel.movieapp;
+
+// free of Android types, so the JVM benchmarks run the same statements
+final class MovieQueries
+{
+   // a movie's columns with its credits
+   static final String MOVIE_COLUMNS = "_id, name, " + 
+      personColumn(MovieSchema.ROLE_DIRECTOR) + ", " + 
+      personColumn(MovieSchema.ROLE_WRITER) + ", " + 
+      personColumn(MovieSchema.ROLE_ACTOR) + ", " + 
+      personColumn(MovieSchema.ROLE_ACTRESS) + ", genre, year";
+   
+   // one movie with its credits
+   static final String SELECT_MOVIE = 
+      "SELECT " + MOVIE_COLUMNS + " FROM movies WHERE _id=?";
+   
+   // movies with their credits by rowID, a fixed number at a time so 
+   // every batch reuses one prepared statement
+   static final int BATCH_IDS = 64;
+   static final String SELECT_MOVIE_BATCH = selectMovieBatch();
+   
+   // every movie's (_id, name), sorted to match the movies_title_list index
+   static final String SELECT_ALL_MOVIES = 
+      "SELECT _id, name FROM movies ORDER BY name COLLATE NOCASE";
+   
+   // a movie's name
+   static final String SELECT_MOVIE_NAME = 
+      "SELECT name FROM movies WHERE _id=?";
+   
+   // the movies row itself; people are written with the credit statements
+   static final String INSERT_MOVIE = "INSERT INTO movies " +
+      "(name, genre, year, match_hash) VALUES (?, ?, ?, ?)";
+   
+   // people are kept in credits; also clears any pre-version 4 copies
+   static final String UPDATE_MOVIE = "UPDATE movies SET name=?, " +
+      "genre=?, year=?, match_hash=?, director=NULL, writer=NULL, " +
+      "actor=NULL, actress=NULL WHERE _id=?";
+   
+   static final String DELETE_MOVIE = "DELETE FROM movies WHERE _id=?";
+   
+   // movies that may duplicate a name and year: those with its 
+   // MovieKeys.matchHash, read from the match hash index
+   static final String COUNT_MATCHES = 
+      "SELECT COUNT(*) FROM movies WHERE match_hash=?";
+   static final String SELECT_MATCHES = 
+      "SELECT _id, name, year FROM movies WHERE match_hash=?";
+   
+   // every movie sharing its match hash with another, grouped by hash; 
+   // the subquery groups the match hash index in one pass, and each 
+   // hash found is then looked up in it, so nothing is sorted
+   static final String SELECT_DUPLICATES = 
+      "SELECT _id, name, year, match_hash FROM movies WHERE match_hash IN " +
+      "(SELECT match_hash FROM movies WHERE match_hash IS NOT NULL " +
+      "GROUP BY match_hash HAVING COUNT(*) > 1) ORDER BY match_hash, _id";
+   
+   // the file name of a movie's poster, or NULL for none
+   static final String UPDATE_POSTER = 
+      "UPDATE movies SET poster=? WHERE _id=?";
+   
+   // a movie's full-text index entry, whose docid is the movie's _id
+   static final String INSERT_SEARCH_ENTRY = "INSERT INTO movies_fts " +
+      "(docid, " + MovieSchema.SEARCH_COLUMNS + ") " +
+      "VALUES (?, ?, ?, ?, ?, ?, ?)";
+   static final String DELETE_SEARCH_ENTRY = 
+      "DELETE FROM movies_fts WHERE docid=?";
+   
+   // one role's credit on a movie
+   static final String SELECT_CREDIT = 
+      "SELECT person_id FROM credits WHERE movie_id=? AND role=?";
+   static final String INSERT_CREDIT = 
+      "INSERT INTO credits (movie_id, role, person_id) VALUES (?, ?, ?)";
+   static final String DELETE_CREDIT = 
+      "DELETE FROM credits WHERE movie_id=? AND role=?";
+   
+   // all of a movie's credits
+   static final String SELECT_MOVIE_CREDITS = 
+      "SELECT person_id FROM credits WHERE movie_id=?";
+   static final String DELETE_MOVIE_CREDITS = 
+      "DELETE FROM credits WHERE movie_id=?";
+   
+   // people by name, and removal once no movie credits them
+   static final String SELECT_PERSON = "SELECT _id FROM people WHERE name=?";
+   static final String INSERT_PERSON = "INSERT INTO people (name) VALUES (?)";
+   static final String DELETE_UNCREDITED_PERSON = 
+      "DELETE FROM people WHERE _id=?1 AND NOT EXISTS " +
+      "(SELECT 1 FROM credits WHERE person_id=?1)";
+   
+   // returns one person column of SELECT_MOVIE's result; rows a migration
+   // has not reached yet still hold the name in movies itself
+   static String personColumn(int role)
+   {
+      String column = MovieSchema.PERSON_COLUMNS[role];
+      return "COALESCE(" + column + ", (SELECT p.name FROM credits c " +
+         "JOIN people p ON p._id=c.person_id WHERE c.movie_id=movies._id " +
+         "AND c.role=" + role + ")) AS " + column;
+   }
+   
+   // returns SELECT_MOVIE for BATCH_IDS rowIDs
+   private static String selectMovieBatch()
+   {
+      StringBuilder sql = new StringBuilder("SELECT " + MOVIE_COLUMNS + 
+         " FROM movies WHERE _id IN (?");
+      
+      for (int i = 1; i < BATCH_IDS; ++i)
+         sql.append(", ?");
+      
+      return sql.append(')').toString();
+   }
+   
+   private MovieQueries()
+   {
+   }
+} // end class MovieQueries
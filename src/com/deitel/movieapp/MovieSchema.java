@@ -0,0 +1,206 @@
+// MovieSchema.java
+// Table and index definitions for the current UserMovies schema version
+package com.deitel.movieapp;
+
+final class MovieSchema
+{
+   // database name
+   static final String DATABASE_NAME = "UserMovies";
+
+   // current schema version; SchemaMigrations upgrades older databases
+   static final int DATABASE_VERSION = 8;
+
+   // roles in the credits table; each is also the index of the movies 
+   // column in PERSON_COLUMNS that held the role's name before version 4
+   static final int ROLE_DIRECTOR = 0;
+   static final int ROLE_WRITER = 1;
+   static final int ROLE_ACTOR = 2;
+   static final int ROLE_ACTRESS = 3;
+   static final String[] PERSON_COLUMNS = 
+      { "director", "writer", "actor", "actress" };
+
+   // query to create a new table named movies; since version 4 the 
+   // PERSON_COLUMNS are NULL (stored in one byte) once a movie's people are
+   // in credits, and are kept so new and upgraded databases match; 
+   // since version 6 sort_director copies the director's name from 
+   // people so the list can be sorted and filtered by it; since version 7
+   // poster names the movie's poster file in PosterCache's directory, as
+   // images stored in the table would bloat every CursorWindow; since 
+   // version 8 match_hash is the MovieKeys.matchHash of name and year
+   static final String CREATE_MOVIES_TABLE = "CREATE TABLE movies" +
+      "(_id integer primary key autoincrement," +
+      "name TEXT, director TEXT, writer TEXT, " +
+      "actor TEXT, actress TEXT, genre TEXT, year INTEGER, " +
+      "sort_director TEXT, poster TEXT, match_hash INTEGER);";
+
+   // secondary indexes on movies, one per sort order of the movie list 
+   // (recently added reads the table itself in _id order); each lists
+   // _id right after its sort column so it matches the list's ORDER BY, 
+   // and holds every column the list selects or filters on, so no sort 
+   // or filter ever needs a temporary B-tree or a table lookup
+   static final String[] CREATE_MOVIES_INDEXES =
+   {
+      "CREATE INDEX IF NOT EXISTS movies_title_list ON movies " +
+         "(name COLLATE NOCASE, _id, genre, year, sort_director)",
+      "CREATE INDEX IF NOT EXISTS movies_year_list ON movies " +
+         "(year, _id, name, genre, sort_director)",
+      "CREATE INDEX IF NOT EXISTS movies_director_list ON movies " +
+         "(sort_director COLLATE NOCASE, _id, name, genre, year)"
+   };
+
+   // finds a movie's possible duplicates, and groups them all, without
+   // comparing names; created once the version 8 migration has hashed 
+   // every movie, and kept through imports, which look duplicates up
+   static final String MATCH_HASH_INDEX = "movies_match_hash";
+   static final String CREATE_MATCH_HASH_INDEX = 
+      "CREATE INDEX IF NOT EXISTS " + MATCH_HASH_INDEX + 
+      " ON movies (match_hash)";
+
+   // keep sort_director equal to the name of the movie's director credit
+   static final String[] CREATE_SORT_DIRECTOR_TRIGGERS =
+   {
+      "CREATE TRIGGER IF NOT EXISTS credits_sort_director_insert " +
+         "AFTER INSERT ON credits WHEN new.role=" + ROLE_DIRECTOR + 
+         " BEGIN UPDATE movies SET sort_director=" +
+         "(SELECT name FROM people WHERE _id=new.person_id) " +
+         "WHERE _id=new.movie_id; END",
+      "CREATE TRIGGER IF NOT EXISTS credits_sort_director_delete " +
+         "AFTER DELETE ON credits WHEN old.role=" + ROLE_DIRECTOR + 
+         " BEGIN UPDATE movies SET sort_director=NULL " +
+         "WHERE _id=old.movie_id; END"
+   };
+
+   // each distinct person credited on any movie
+   static final String CREATE_PEOPLE_TABLE = "CREATE TABLE people" +
+      "(_id INTEGER PRIMARY KEY, name TEXT NOT NULL COLLATE NOCASE UNIQUE)";
+
+   // who filled each role on each movie
+   static final String CREATE_CREDITS_TABLE = "CREATE TABLE credits" +
+      "(movie_id INTEGER NOT NULL, role INTEGER NOT NULL, " +
+      "person_id INTEGER NOT NULL, PRIMARY KEY (movie_id, role))";
+
+   // finds a person's movies without scanning credits
+   static final String CREATE_CREDITS_PERSON_INDEX = 
+      "CREATE INDEX IF NOT EXISTS credits_person " +
+      "ON credits (person_id, role, movie_id)";
+
+   // text columns mirrored into the full-text index
+   static final String SEARCH_COLUMNS =
+      "name, director, writer, actor, actress, genre";
+
+   // full-text index over SEARCH_COLUMNS whose docid is the movie's _id;
+   // the prefix indexes make 1 to 3 character "term*" queries lookups
+   static final String CREATE_MOVIES_FTS_TABLE =
+      "CREATE VIRTUAL TABLE movies_fts USING fts4" +
+      "(" + SEARCH_COLUMNS + ", prefix=\"1,2,3\")";
+
+   // one row per migration whose data copy has not finished yet
+   static final String CREATE_SCHEMA_MIGRATIONS_TABLE =
+      "CREATE TABLE IF NOT EXISTS schema_migrations" +
+      "(version INTEGER PRIMARY KEY, last_row_id INTEGER NOT NULL)";
+
+   // the genre and decade a movie is counted under; genres differing 
+   // only in case or surrounding spaces are one genre, and movies with no
+   // genre or year are counted under '' and -1
+   static final String GENRE_KEY = "ifnull(trim(%1$s.genre), '')";
+   private static final String DECADE_KEY = "ifnull(%1$s.year / 10 * 10, -1)";
+
+   // movies per genre, per decade and per director, read by the 
+   // statistics screen instead of grouping movies
+   static final String[] CREATE_STATISTICS_TABLES =
+   {
+      "CREATE TABLE IF NOT EXISTS genre_counts" +
+         "(genre TEXT PRIMARY KEY COLLATE NOCASE, movies INTEGER NOT NULL)",
+      "CREATE TABLE IF NOT EXISTS decade_counts" +
+         "(decade INTEGER PRIMARY KEY, movies INTEGER NOT NULL)",
+      "CREATE TABLE IF NOT EXISTS director_counts" +
+         "(person_id INTEGER PRIMARY KEY, movies INTEGER NOT NULL)",
+      "CREATE INDEX IF NOT EXISTS director_counts_movies " +
+         "ON director_counts (movies)"
+   };
+
+   // keep the statistics tables current on every write to movies and
+   // credits, whether from DatabaseConnector, an import or a migration;
+   // counts that reach 0 are removed
+   static final String[] CREATE_STATISTICS_TRIGGERS =
+   {
+      "CREATE TRIGGER IF NOT EXISTS movies_statistics_insert " +
+         "AFTER INSERT ON movies BEGIN " + 
+         addCount("genre_counts", "genre", String.format(GENRE_KEY, "new")) +
+         addCount("decade_counts", "decade", 
+            String.format(DECADE_KEY, "new")) + "END",
+      "CREATE TRIGGER IF NOT EXISTS movies_statistics_delete " +
+         "AFTER DELETE ON movies BEGIN " + 
+         removeCount("genre_counts", "genre", 
+            String.format(GENRE_KEY, "old")) +
+         removeCount("decade_counts", "decade", 
+            String.format(DECADE_KEY, "old")) + "END",
+      "CREATE TRIGGER IF NOT EXISTS movies_statistics_update " +
+         "AFTER UPDATE OF genre, year ON movies BEGIN " + 
+         removeCount("genre_counts", "genre", 
+            String.format(GENRE_KEY, "old")) +
+         addCount("genre_counts", "genre", String.format(GENRE_KEY, "new")) +
+         removeCount("decade_counts", "decade", 
+            String.format(DECADE_KEY, "old")) +
+         addCount("decade_counts", "decade", 
+            String.format(DECADE_KEY, "new")) + "END",
+      "CREATE TRIGGER IF NOT EXISTS credits_statistics_insert " +
+         "AFTER INSERT ON credits WHEN new.role=" + ROLE_DIRECTOR + 
+         " BEGIN " + 
+         addCount("director_counts", "person_id", "new.person_id") + "END",
+      "CREATE TRIGGER IF NOT EXISTS credits_statistics_delete " +
+         "AFTER DELETE ON credits WHEN old.role=" + ROLE_DIRECTOR + 
+         " BEGIN " + 
+         removeCount("director_counts", "person_id", "old.person_id") + "END"
+   };
+
+   // recount the statistics tables from movies and credits, e.g. if a 
+   // REPLACE (which fires no delete trigger) left them drifting
+   static final String[] REBUILD_STATISTICS =
+   {
+      "DELETE FROM genre_counts",
+      "INSERT INTO genre_counts (genre, movies) SELECT " + 
+         String.format(GENRE_KEY, "movies") + 
+         ", COUNT(*) FROM movies GROUP BY 1 COLLATE NOCASE",
+      "DELETE FROM decade_counts",
+      "INSERT INTO decade_counts (decade, movies) SELECT " + 
+         String.format(DECADE_KEY, "movies") + 
+         ", COUNT(*) FROM movies GROUP BY 1",
+      "DELETE FROM director_counts",
+      "INSERT INTO director_counts (person_id, movies) " +
+         "SELECT person_id, COUNT(*) FROM credits WHERE role=" + 
+         ROLE_DIRECTOR + " GROUP BY person_id"
+   };
+
+   // every table in the current schema, in creation order, with the 
+   // indexes that are not rebuilt along with movies
+   static final String[] CREATE_TABLES =
+   {
+      CREATE_MOVIES_TABLE,
+      CREATE_PEOPLE_TABLE,
+      CREATE_CREDITS_TABLE,
+      CREATE_CREDITS_PERSON_INDEX,
+      CREATE_MOVIES_FTS_TABLE,
+      CREATE_SCHEMA_MIGRATIONS_TABLE
+   };
+
+   // trigger statements adding one to, or removing one from, key's count
+   private static String addCount(String table, String column, String key)
+   {
+      return "INSERT OR IGNORE INTO " + table + " (" + column + 
+         ", movies) VALUES (" + key + ", 0); UPDATE " + table + 
+         " SET movies=movies+1 WHERE " + column + "=" + key + "; ";
+   }
+
+   private static String removeCount(String table, String column, 
+      String key)
+   {
+      return "UPDATE " + table + " SET movies=movies-1 WHERE " + column + 
+         "=" + key + "; DELETE FROM " + table + " WHERE " + column + "=" + 
+         key + " AND movies<=0; ";
+   }
+
+   private MovieSchema()
+   {
+   }
+} // end class MovieSchema
@@ -0,0 +1,677 @@
+// MovieWriter.java
+// Queues movie inserts, updates and deletes, merges repeated writes to a
+// movie and commits each burst in one transaction on a writer thread
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class MovieWriter
+{
+   private static final String TAG = "MovieWriter";
+
+   // writes queued within this long of the first commit together
+   private static final long COALESCE_MILLIS = 100;
+
+   // kinds of queued write
+   private static final int INSERT = 0;
+   private static final int UPDATE = 1;
+   private static final int DELETE = 2;
+
+   // receives the outcome of a write on the GUI thread
+   public interface Callback
+   {
+      // rowID is the movie's database rowID once the write has committed,
+      // the temporary rowID if a delete of the queued insert made the
+      // write unnecessary, or -1 if it failed
+      public void onWritten(long rowID);
+   }
+
+   // receives the outcome of a bulk delete on the GUI thread
+   public interface DeleteCallback
+   {
+      // count is the number of movies deleted, or -1 if the delete failed
+      public void onDeleted(int count);
+   }
+
+   // shows queued writes before they commit; called on the GUI thread,
+   // and when a write ends, before the commit's MovieChanges arrive
+   public interface Listener
+   {
+      // a write was queued; type is MovieChanges.INSERTED, UPDATED or
+      // DELETED, rowID is temporary until the movie's insert commits,
+      // oldName is null for INSERTED and newName is null for DELETED
+      public void onWriteQueued(int type, long rowID, String oldName,
+         String newName);
+
+      // the insert queued as temporaryID committed as rowID, or -1 if it
+      // failed or a delete dropped it from the queue
+      public void onInsertFinished(long temporaryID, long rowID);
+
+      // a queued write to rowID failed and was rolled back
+      public void onWriteFailed(long rowID);
+   }
+
+   // a queued write and the callbacks of the writes merged into it
+   private static class Write
+   {
+      int type;
+      final long rowID; // database rowID, or temporary for an insert
+      Movie movie; // values to write; null for DELETE
+      final List<Callback> callbacks = new ArrayList<Callback>();
+      long writtenID = -1; // set by the writer thread
+      boolean dropped; // a queued insert a delete made unnecessary
+      boolean announced; // its outcome has gone to the listeners
+
+      Write(int type, long rowID, Movie movie)
+      {
+         this.type = type;
+         this.rowID = rowID;
+         this.movie = movie;
+      }
+   } // end class Write
+
+   // a queued delete of many movies
+   private static class BulkDelete
+   {
+      final long[] ids; // database or temporary rowIDs
+      final DeleteCallback callback;
+      int deleted = -1; // set by the writer thread
+
+      BulkDelete(long[] ids, DeleteCallback callback)
+      {
+         this.ids = ids;
+         this.callback = callback;
+      }
+   } // end class BulkDelete
+
+   private static MovieWriter instance; // process-wide writer
+
+   private final Context context; // for the writer's DatabaseConnector
+   private final Handler handler = new Handler(Looper.getMainLooper());
+   private final List<Listener> listeners = new ArrayList<Listener>();
+   private final Object lock = new Object();
+   private final Map<Long, Write> pending = // by rowID, oldest first
+      new LinkedHashMap<Long, Write>();
+   private List<Write> writing = // taken by the writer thread
+      Collections.emptyList();
+   private final List<BulkDelete> bulkDeletes = // after pending writes
+      new ArrayList<BulkDelete>();
+   private final Map<Long, Long> insertedIDs = // temporary to database
+      new HashMap<Long, Long>();
+   private long nextTemporaryID = -2; // -1 means no row
+   private long queued; // writes accepted so far
+   private long finished; // of those, writes committed or failed
+   private long flushTarget; // writes up to this one skip coalescing
+
+   // return the process-wide MovieWriter
+   public static synchronized MovieWriter getInstance(Context context)
+   {
+      if (instance == null)
+         instance = new MovieWriter(context.getApplicationContext());
+
+      return instance;
+   }
+
+   // private constructor; use getInstance
+   private MovieWriter(Context context)
+   {
+      this.context = context;
+
+      new Thread(TAG)
+      {
+         @Override
+         public void run()
+         {
+            writeForever();
+         }
+      }.start();
+   }
+
+   // register listener; call on the GUI thread
+   public void addListener(Listener listener)
+   {
+      listeners.add(listener);
+   }
+
+   // unregister listener; call on the GUI thread
+   public void removeListener(Listener listener)
+   {
+      listeners.remove(listener);
+   }
+
+   // queue a new movie; returns the temporary (negative) rowID that
+   // update and delete accept until the insert commits
+   public long insert(Movie movie, Callback callback)
+   {
+      synchronized (lock)
+      {
+         long rowID = nextTemporaryID--;
+         queue(INSERT, rowID, null, movie, callback);
+         return rowID;
+      }
+   }
+
+   // queue new values for a movie listed as oldName; a queued insert or
+   // update of the same movie is replaced, so only the latest values are
+   // written
+   public void update(long rowID, String oldName, Movie movie,
+      Callback callback)
+   {
+      synchronized (lock)
+      {
+         queue(UPDATE, rowID, oldName, movie, callback);
+      }
+   }
+
+   // queue a delete of a movie listed as oldName; a queued insert of the
+   // movie is simply dropped
+   public void delete(long rowID, String oldName, Callback callback)
+   {
+      synchronized (lock)
+      {
+         queue(DELETE, rowID, oldName, null, callback);
+      }
+   }
+
+   // queue a delete of many movies, run in one transaction after the 
+   // writes queued with it; the list shows it once it commits
+   public void deleteMovies(long[] ids, DeleteCallback callback)
+   {
+      synchronized (lock)
+      {
+         ++queued;
+         bulkDeletes.add(new BulkDelete(ids.clone(), callback));
+         lock.notifyAll(); // wake the writer thread
+      }
+   }
+
+   // return the database rowID of a temporary rowID whose insert has
+   // committed; any other rowID is returned unchanged
+   public long resolve(long rowID)
+   {
+      synchronized (lock)
+      {
+         Long insertedID = insertedIDs.get(rowID);
+         return insertedID != null ? insertedID : rowID;
+      }
+   }
+
+   // return the latest values queued for a movie that have not been
+   // committed yet, or null if there are none or the movie is being
+   // deleted
+   public Movie getQueuedMovie(long rowID)
+   {
+      synchronized (lock)
+      {
+         Write write = findWrite(resolve(rowID));
+         return write != null ? write.movie : null;
+      }
+   }
+
+   // return the rowID of a movie other than excludeID whose queued insert
+   // or update matches name and year once normalized by MovieKeys, or -1;
+   // the database cannot know of such a movie yet
+   public long findQueuedDuplicate(String name, String year, long excludeID)
+   {
+      String matchKey = MovieKeys.matchKey(name, year);
+
+      synchronized (lock)
+      {
+         excludeID = resolve(excludeID);
+
+         for (Write write : writing)
+         {
+            if (matches(write, matchKey, excludeID))
+               return write.rowID;
+         }
+
+         for (Write write : pending.values())
+         {
+            if (matches(write, matchKey, excludeID))
+               return write.rowID;
+         }
+      }
+
+      return -1;
+   } // end method findQueuedDuplicate
+
+   // return true if write stores a movie other than excludeID under
+   // matchKey
+   private boolean matches(Write write, String matchKey, long excludeID)
+   {
+      return write.movie != null && resolve(write.rowID) != excludeID &&
+         matchKey.equals(MovieKeys.matchKey(write.movie.name, 
+            write.movie.year));
+   }
+
+   // block until every write queued before the call has committed or
+   // failed, e.g. before a backup reads the library
+   public void flush()
+   {
+      flush(0);
+   }
+
+   // start committing every write queued before the call without the 
+   // coalescing delay, and wait at most timeoutMillis (0 for no limit) 
+   // for them to commit or fail; the writer thread goes on committing 
+   // after a timeout, so the GUI thread can wait briefly, e.g. before the
+   // process may be killed in the background; returns true if all did
+   public boolean flush(long timeoutMillis)
+   {
+      synchronized (lock)
+      {
+         long target = queued;
+         flushTarget = Math.max(flushTarget, target);
+         lock.notifyAll(); // skip the rest of the coalescing delay
+         long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+
+         try
+         {
+            while (finished < target)
+            {
+               long remaining = deadline - SystemClock.uptimeMillis();
+
+               if (timeoutMillis == 0)
+                  lock.wait();
+               else if (remaining > 0)
+                  lock.wait(remaining);
+               else
+                  return false;
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+
+         return finished >= target;
+      }
+   } // end method flush
+
+   // add a write to the queue, merging it with a queued write of the
+   // same movie, and show it to the listeners; call while holding lock
+   private void queue(int type, long rowID, String oldName, Movie movie,
+      Callback callback)
+   {
+      ++queued;
+      lock.notifyAll(); // wake the writer thread
+      rowID = resolve(rowID);
+
+      // the movie is listed under the name last queued for it, if any
+      Write queuedWrite = findWrite(rowID);
+
+      if (queuedWrite != null && queuedWrite.movie != null)
+         oldName = queuedWrite.movie.name;
+
+      Write write = pending.get(rowID);
+
+      if (write == null)
+      {
+         write = new Write(type, rowID, movie);
+         pending.put(rowID, write);
+      }
+      else if (write.type == DELETE) // nothing left to write to
+      {
+         deliver(callback, -1);
+         return;
+      }
+      else if (type == DELETE && write.type == INSERT)
+      {
+         // the movie never reaches the database
+         pending.remove(rowID);
+         write.dropped = true;
+         write.callbacks.add(callback);
+         announceQueued(MovieChanges.DELETED, rowID, oldName, null);
+         announceFinished(Collections.singletonList(write));
+
+         for (Callback writeCallback : write.callbacks)
+            deliver(writeCallback, rowID);
+
+         return;
+      }
+      else
+      {
+         if (type == DELETE)
+            write.type = DELETE; // instead of the queued update
+
+         write.movie = movie; // an insert stays an insert
+      }
+
+      write.callbacks.add(callback);
+      announceQueued(type == INSERT ? MovieChanges.INSERTED :
+         type == UPDATE ? MovieChanges.UPDATED : MovieChanges.DELETED,
+         rowID, oldName, movie != null ? movie.name : null);
+   } // end method queue
+
+   // return the newest queued or in-flight write of rowID, or null; call
+   // while holding lock
+   private Write findWrite(long rowID)
+   {
+      Write write = pending.get(rowID);
+
+      for (int i = writing.size() - 1; write == null && i >= 0; --i)
+      {
+         if (writing.get(i).rowID == rowID)
+            write = writing.get(i);
+      }
+
+      return write;
+   }
+
+   // the writer thread's loop: wait for writes, let the rest of a burst
+   // arrive, then commit the burst
+   private void writeForever()
+   {
+      while (true)
+      {
+         List<Write> writes;
+         List<BulkDelete> deletes;
+         long batchEnd;
+
+         synchronized (lock)
+         {
+            while (pending.isEmpty() && finished == queued)
+               waitOnLock(0);
+
+            // a flush does not wait for more writes to arrive
+            long deadline = SystemClock.uptimeMillis() + COALESCE_MILLIS;
+            long now;
+
+            while (finished >= flushTarget &&
+               (now = SystemClock.uptimeMillis()) < deadline)
+               waitOnLock(deadline - now);
+
+            writes = new ArrayList<Write>(pending.values());
+            writing = writes;
+            pending.clear();
+            deletes = new ArrayList<BulkDelete>(bulkDeletes);
+            bulkDeletes.clear();
+            batchEnd = queued;
+         }
+
+         try
+         {
+            if (!writes.isEmpty() || !deletes.isEmpty())
+               writeAll(writes, deletes);
+         }
+         catch (RuntimeException e)
+         {
+            // e.g. the database could not be opened; fail what is left
+            // and keep the thread for the next burst
+            Log.w(TAG, "writing a burst failed", e);
+            failUnannounced(writes);
+         }
+         finally
+         {
+            synchronized (lock)
+            {
+               writing = Collections.emptyList();
+               finished = batchEnd;
+               lock.notifyAll(); // release flush
+            }
+         }
+
+         for (Write write : writes)
+         {
+            for (Callback callback : write.callbacks)
+               deliver(callback, write.writtenID);
+         }
+
+         for (final BulkDelete delete : deletes)
+         {
+            if (delete.callback != null)
+               handler.post(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     delete.callback.onDeleted(delete.deleted);
+                  }
+               });
+         }
+      }
+   } // end method writeForever
+
+   // commit a burst's writes, then its bulk deletes
+   private void writeAll(List<Write> writes, List<BulkDelete> deletes)
+   {
+      DatabaseConnector databaseConnector = new DatabaseConnector(context);
+
+      try
+      {
+         databaseConnector.open();
+
+         if (!writes.isEmpty())
+            writeBatch(databaseConnector, writes);
+
+         for (BulkDelete delete : deletes)
+            deleteBatch(databaseConnector, delete);
+      }
+      finally
+      {
+         databaseConnector.close();
+      }
+   } // end method writeAll
+
+   // report the writes whose outcome was never announced as failed; 
+   // bulk deletes that did not run keep their deleted count of -1
+   private void failUnannounced(List<Write> writes)
+   {
+      List<Write> failed = new ArrayList<Write>();
+
+      synchronized (lock)
+      {
+         for (Write write : writes)
+         {
+            if (!write.announced)
+            {
+               write.writtenID = -1;
+               failed.add(write);
+            }
+         }
+      }
+
+      if (!failed.isEmpty())
+         announceFinished(failed);
+   } // end method failUnannounced
+
+   // run a bulk delete; inserts queued with it have been written, so 
+   // their temporary rowIDs resolve
+   private void deleteBatch(DatabaseConnector databaseConnector,
+      BulkDelete delete)
+   {
+      long[] ids = new long[delete.ids.length];
+      int count = 0;
+
+      for (long id : delete.ids)
+      {
+         id = resolve(id);
+
+         if (id > 0) // not a failed insert
+            ids[count++] = id;
+      }
+
+      try
+      {
+         delete.deleted = databaseConnector.deleteMovies(
+            count == ids.length ? ids : Arrays.copyOf(ids, count));
+      }
+      catch (RuntimeException e) // SQLException or a bad value
+      {
+         Log.w(TAG, "deleting " + count + " movies failed", e);
+      }
+   } // end method deleteBatch
+
+   // write a burst in one transaction, so it costs a single commit; if
+   // any write fails, write each again in its own transaction so one bad
+   // write cannot lose the others
+   private void writeBatch(DatabaseConnector databaseConnector,
+      List<Write> writes)
+   {
+      SQLiteDatabase database = databaseConnector.getDatabase();
+      boolean committed = false;
+      database.beginTransaction();
+      MovieChanges.beginWrite();
+
+      try
+      {
+         for (Write write : writes)
+            write(databaseConnector, write);
+
+         database.setTransactionSuccessful();
+         committed = true;
+      }
+      catch (RuntimeException e) // SQLException or a bad value
+      {
+         Log.w(TAG, "writing " + writes.size() + " movies failed", e);
+      }
+      finally
+      {
+         database.endTransaction();
+
+         // movies read between a write and the commit may be stale
+         MovieCache.invalidateAll();
+
+         if (!committed)
+         {
+            for (Write write : writes)
+               write.writtenID = -1; // rolled back
+         }
+
+         // listeners reconcile their queued rows before the changes
+         // arrive; a group that failed is announced write by write
+         if (committed || writes.size() == 1)
+            announceFinished(writes);
+
+         MovieChanges.endBatch(committed);
+      }
+
+      if (!committed && writes.size() > 1)
+      {
+         for (Write write : writes)
+            writeBatch(databaseConnector, Collections.singletonList(write));
+      }
+   } // end method writeBatch
+
+   // apply one queued write, recording the rowID it wrote
+   private void write(DatabaseConnector databaseConnector, Write write)
+   {
+      Movie movie = write.movie;
+      long rowID = resolve(write.rowID); // queued before its insert ended
+      write.writtenID = -1;
+
+      if (write.type == INSERT)
+      {
+         write.writtenID = databaseConnector.insertMovie(movie.name,
+            movie.director, movie.writer, movie.actor, movie.actress,
+            movie.genre, movie.year);
+         return;
+      }
+
+      if (rowID < 0)
+         return; // its insert failed
+
+      if (write.type == UPDATE)
+         databaseConnector.updateMovie(rowID, movie.name, movie.director,
+            movie.writer, movie.actor, movie.actress, movie.genre,
+            movie.year);
+      else
+         databaseConnector.deleteMovie(rowID);
+
+      write.writtenID = rowID;
+   } // end method write
+
+   // record the rowIDs of finished inserts and tell the listeners how
+   // the writes ended
+   private void announceFinished(final List<Write> writes)
+   {
+      synchronized (lock)
+      {
+         for (Write write : writes)
+         {
+            write.announced = true;
+
+            if (write.type == INSERT && write.writtenID != -1)
+               insertedIDs.put(write.rowID, write.writtenID);
+         }
+      }
+
+      handler.post(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            for (Listener listener :
+               listeners.toArray(new Listener[listeners.size()]))
+            {
+               for (Write write : writes)
+               {
+                  if (write.type == INSERT)
+                     listener.onInsertFinished(write.rowID, write.writtenID);
+
+                  if (write.writtenID == -1 && !write.dropped)
+                     listener.onWriteFailed(write.rowID);
+               }
+            }
+         }
+      });
+   } // end method announceFinished
+
+   // show a queued write to the listeners
+   private void announceQueued(final int type, final long rowID,
+      final String oldName, final String newName)
+   {
+      handler.post(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            for (Listener listener :
+               listeners.toArray(new Listener[listeners.size()]))
+               listener.onWriteQueued(type, rowID, oldName, newName);
+         }
+      });
+   }
+
+   // pass rowID to callback on the GUI thread
+   private void deliver(final Callback callback, final long rowID)
+   {
+      if (callback == null)
+         return;
+
+      handler.post(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            callback.onWritten(rowID);
+         }
+      });
+   }
+
+   // wait on lock for up to millis (0 for no limit); call holding lock
+   private void waitOnLock(long millis)
+   {
+      try
+      {
+         lock.wait(millis);
+      }
+      catch (InterruptedException e)
+      {
+         // the writer thread is never interrupted; keep writing
+      }
+   }
+} // end class MovieWriter
@@ -0,0 +1,156 @@
+// MovieWrites.java
+// Writes one movie with its credits and search entry, over any binding
+package com.deitel.movieapp;
+
+// free of Android types, so the JVM benchmarks run the same writes as
+// DatabaseConnector; a subclass runs the statements, throwing E on error,
+// and the caller owns the transaction
+abstract class MovieWrites<E extends Exception>
+{
+   // returns the first column of the query's first row, or -1 if no rows
+   protected abstract long queryLong(String sql, Object... args) throws E;
+
+   // returns the first column of every row of the query
+   protected abstract long[] queryLongs(String sql, Object... args)
+      throws E;
+
+   // returns the first column of the query's first row, or null if no rows
+   protected abstract String queryString(String sql, Object... args)
+      throws E;
+
+   // executes an INSERT and returns the new rowID, or -1 if none
+   protected abstract long executeInsert(String sql, Object... args)
+      throws E;
+
+   // executes an UPDATE or DELETE and returns the number of rows changed
+   protected abstract int executeUpdateDelete(String sql, Object... args)
+      throws E;
+
+   // inserts a movie with people ordered by role; returns its _id, or -1
+   long insertMovie(String name, String[] people, String genre,
+      String year) throws E
+   {
+      long rowID = executeInsert(MovieQueries.INSERT_MOVIE, name, genre,
+         yearValue(year), MovieKeys.matchHash(name, year));
+
+      if (rowID != -1)
+      {
+         setCredits(rowID, people);
+         indexMovie(rowID, name, people, genre);
+      }
+
+      return rowID;
+   } // end method insertMovie
+
+   // updates a movie; returns the rows changed, 0 if it no longer exists
+   int updateMovie(long id, String name, String[] people, String genre,
+      String year) throws E
+   {
+      int rows = executeUpdateDelete(MovieQueries.UPDATE_MOVIE, name,
+         genre, yearValue(year), MovieKeys.matchHash(name, year), id);
+
+      // a movie deleted since the edit was queued gets no credits or
+      // search entry, which would name a row that does not exist
+      if (rows > 0)
+      {
+         setCredits(id, people);
+         indexMovie(id, name, people, genre);
+      }
+
+      return rows;
+   } // end method updateMovie
+
+   // deletes a movie with its credits and search entry; returns the rows
+   // deleted, 0 if it was already gone
+   int deleteMovie(long id) throws E
+   {
+      int rows = executeUpdateDelete(MovieQueries.DELETE_MOVIE, id);
+
+      if (rows > 0)
+      {
+         removeCredits(id);
+         executeUpdateDelete(MovieQueries.DELETE_SEARCH_ENTRY, id);
+      }
+
+      return rows;
+   } // end method deleteMovie
+
+   // returns the name of the movie with the given _id, or null
+   String queryName(long id) throws E
+   {
+      return queryString(MovieQueries.SELECT_MOVIE_NAME, id);
+   }
+
+   // mirrors a movie's text into the movies_fts full-text index; the old
+   // entry is replaced, as a migration may not have indexed the movie yet
+   private void indexMovie(long id, String name, String[] people,
+      String genre) throws E
+   {
+      executeUpdateDelete(MovieQueries.DELETE_SEARCH_ENTRY, id);
+      executeInsert(MovieQueries.INSERT_SEARCH_ENTRY, id, name,
+         people[MovieSchema.ROLE_DIRECTOR],
+         people[MovieSchema.ROLE_WRITER], people[MovieSchema.ROLE_ACTOR],
+         people[MovieSchema.ROLE_ACTRESS], genre);
+   }
+
+   // credits people (ordered by role) to a movie, replacing earlier credits
+   private void setCredits(long movieID, String[] people) throws E
+   {
+      for (int role = 0; role < people.length; ++role)
+      {
+         long oldPersonID =
+            queryLong(MovieQueries.SELECT_CREDIT, movieID, role);
+         String person = people[role] == null ? "" : people[role].trim();
+         long personID = person.length() == 0 ? -1 : findOrAddPerson(person);
+
+         if (personID == oldPersonID)
+            continue; // credit unchanged
+
+         executeUpdateDelete(MovieQueries.DELETE_CREDIT, movieID, role);
+
+         if (personID >= 0)
+            executeInsert(
+               MovieQueries.INSERT_CREDIT, movieID, role, personID);
+
+         if (oldPersonID >= 0)
+            deleteIfUncredited(oldPersonID);
+      }
+   } // end method setCredits
+
+   // removes all of a movie's credits
+   private void removeCredits(long movieID) throws E
+   {
+      long[] personIDs =
+         queryLongs(MovieQueries.SELECT_MOVIE_CREDITS, movieID);
+      executeUpdateDelete(MovieQueries.DELETE_MOVIE_CREDITS, movieID);
+
+      for (long personID : personIDs)
+         deleteIfUncredited(personID);
+   }
+
+   // returns the person's _id, adding them to people if necessary
+   private long findOrAddPerson(String person) throws E
+   {
+      long personID = queryLong(MovieQueries.SELECT_PERSON, person);
+
+      if (personID < 0)
+         personID = executeInsert(MovieQueries.INSERT_PERSON, person);
+
+      return personID;
+   }
+
+   // removes a person from people once no movie credits them
+   private void deleteIfUncredited(long personID) throws E
+   {
+      executeUpdateDelete(MovieQueries.DELETE_UNCREDITED_PERSON, personID);
+   }
+
+   // returns a blank year as NULL so the INTEGER year column stays typed
+   static String yearValue(String year)
+   {
+      if (year == null || year.trim().length() == 0)
+         return null;
+
+      return year.trim();
+   }
+} // end class MovieWrites
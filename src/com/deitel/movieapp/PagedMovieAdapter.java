@@ -0,0 +1,1168 @@
+// PagedMovieAdapter.java
+// Supplies movie names and poster thumbnails to a ListView one 
+// keyset-queried page at a time, in any MovieListMode
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+public class PagedMovieAdapter extends BaseAdapter 
+   implements MovieChanges.Listener, MovieWriter.Listener, SectionIndexer
+{
+   private static final int PAGE_SIZE = 50; // rows per query
+   private static final int PREFETCH_ROWS = 30; // load rows this far ahead
+   private static final int MAX_PAGES = 16; // pages kept in memory
+   
+   // fast-scroll sections: "#" for names starting with a digit, then
+   // the letters; names starting with anything else join the section
+   // they sort within
+   private static final String[] SECTIONS = { "#", "A", "B", "C", "D", 
+      "E", "F", "G", "H", "I", "J", "K", "L", "M", "N", "O", "P", "Q", 
+      "R", "S", "T", "U", "V", "W", "X", "Y", "Z" };
+   private static final String[] NO_SECTIONS = {}; // other sort orders
+   
+   // groups of names by first character, in list order: symbols sorting
+   // before digits, digits, symbols sorting before letters, one group per
+   // letter, then everything sorting after "z"
+   private static final int BEFORE_DIGITS = 0;
+   private static final int DIGITS = 1;
+   private static final int FIRST_LETTER = 3; // group of "a"
+   private static final int GROUPS = FIRST_LETTER + 26 + 1;
+   
+   // how readPage finds its rows
+   private static final int SEEK_NONE = 0; // by position
+   private static final int SEEK_AFTER = 1; // after a known row
+   private static final int SEEK_BEFORE = 2; // before a known row
+   
+   // the first rows of the last session's list, shown until the 
+   // database has been read
+   private static final String PREFERENCES = "movie_list";
+   private static final String FIRST_SCREEN_KEY = "first_screen";
+   private static final String COUNT_KEY = "count";
+   
+   // the last section index read or maintained, shared by adapters so a
+   // recreated list need not group the movies again
+   private static int[] cachedGroupCounts;
+   private static long cachedGroupVersion = -1;
+
+   // consecutive rows of the sorted movie list, starting at list position
+   // start; change events grow and shrink pages in place
+   private static class Page
+   {
+      int start;
+      long[] ids;
+      String[] names;
+      String[] keys; // sort values, or null in title order (the names)
+      long version; // MovieChanges version read, or -1 if inconsistent
+
+      // saved first screen rows, as [id, name, id, name, ...]
+      Page(JSONArray rows) throws JSONException
+      {
+         ids = new long[rows.length() / 2];
+         names = new String[ids.length];
+         
+         for (int i = 0; i < ids.length; ++i)
+         {
+            ids[i] = rows.getLong(2 * i);
+            names[i] = rows.isNull(2 * i + 1) ? 
+               null : rows.getString(2 * i + 1);
+         }
+      }
+      
+      // a list's only row
+      Page(long id, String name)
+      {
+         ids = new long[] { id };
+         names = new String[] { name };
+      }
+      
+      // rows of (_id, name) or, outside title order, (_id, name, key)
+      Page(Cursor cursor, boolean reversed)
+      {
+         int size = cursor.getCount();
+         ids = new long[size];
+         names = new String[size];
+         
+         if (cursor.getColumnCount() > 2)
+            keys = new String[size];
+
+         for (int i = 0; cursor.moveToNext(); ++i)
+         {
+            int row = reversed ? size - 1 - i : i;
+            ids[row] = cursor.getLong(0);
+            names[row] = cursor.getString(1);
+            
+            if (keys != null)
+               keys[row] = cursor.getString(2);
+         }
+      }
+      
+      // return the value the row is sorted by
+      String key(int row)
+      {
+         return keys != null ? keys[row] : names[row];
+      }
+
+      // return the list position after this page's last row
+      int end()
+      {
+         return start + ids.length;
+      }
+
+      // return the row holding the movie, or -(insertion row) - 1
+      int find(String name, long id)
+      {
+         int low = 0;
+         int high = ids.length - 1;
+
+         while (low <= high)
+         {
+            int middle = (low + high) >>> 1;
+            int order = compare(names[middle], ids[middle], name, id);
+
+            if (order < 0)
+               low = middle + 1;
+            else if (order > 0)
+               high = middle - 1;
+            else
+               return middle;
+         }
+
+         return -low - 1;
+      }
+
+      // insert a movie at row; key is its sort value, kept only if the 
+      // page has keys
+      void insert(int row, String name, String key, long id)
+      {
+         long[] newIds = new long[ids.length + 1];
+         System.arraycopy(ids, 0, newIds, 0, row);
+         newIds[row] = id;
+         System.arraycopy(ids, row, newIds, row + 1, ids.length - row);
+         ids = newIds;
+         names = insert(names, row, name);
+         
+         if (keys != null)
+            keys = insert(keys, row, key);
+      }
+
+      // remove the movie at row
+      void remove(int row)
+      {
+         long[] newIds = new long[ids.length - 1];
+         System.arraycopy(ids, 0, newIds, 0, row);
+         System.arraycopy(ids, row + 1, newIds, row, newIds.length - row);
+         ids = newIds;
+         names = remove(names, row);
+         
+         if (keys != null)
+            keys = remove(keys, row);
+      }
+      
+      // return a copy of values with value inserted at row
+      private static String[] insert(String[] values, int row, String value)
+      {
+         String[] newValues = new String[values.length + 1];
+         System.arraycopy(values, 0, newValues, 0, row);
+         newValues[row] = value;
+         System.arraycopy(values, row, newValues, row + 1, 
+            values.length - row);
+         return newValues;
+      }
+      
+      // return a copy of values without the value at row
+      private static String[] remove(String[] values, int row)
+      {
+         String[] newValues = new String[values.length - 1];
+         System.arraycopy(values, 0, newValues, 0, row);
+         System.arraycopy(values, row + 1, newValues, row, 
+            newValues.length - row);
+         return newValues;
+      }
+   } // end class Page
+
+   // the views of one list row
+   private static class RowViews
+   {
+      final TextView nameTextView;
+      final ImageView posterImageView;
+      
+      RowViews(View row)
+      {
+         nameTextView = (TextView) row.findViewById(android.R.id.text1);
+         posterImageView = 
+            (ImageView) row.findViewById(R.id.posterImageView);
+      }
+   }
+
+   // a reloaded page with the row count and group counts read along 
+   // with it
+   private static class Reload
+   {
+      MovieListMode mode;
+      Page page;
+      int count;
+      int[] groupCounts;
+   }
+
+   private final SharedPreferences preferences;
+   private final LayoutInflater inflater;
+   private final QueryScheduler queryScheduler;
+   private final PosterCache posterCache;
+   private final String keyPrefix; // coalescing keys for this adapter
+   private final List<Page> pages = new ArrayList<Page>(); // by start
+   private final SparseIntArray loadingPages = // priority by start
+      new SparseIntArray();
+   private MovieListMode mode = MovieListMode.DEFAULT; // requested
+   private MovieListMode pagesMode = MovieListMode.DEFAULT; // of the pages
+   private int count; // rows in the list
+   private long countVersion = -1; // version count was read at, or -1
+   private long version; // last MovieChanges version applied to the pages
+   private boolean reloading; // pages are being replaced by reload
+   private int lastPosition; // position most recently displayed
+   private boolean showingSavedRows; // rows are last session's until reload
+   private int[] groupCounts = new int[GROUPS]; // names in each group
+   
+   // rows listed ahead of the database by queued writes, with the name 
+   // each is listed under, or null if it was removed
+   private final Map<Long, String> queuedRows = new HashMap<Long, String>();
+   private final int[] sectionPositions = new int[SECTIONS.length];
+
+   // public constructor for PagedMovieAdapter
+   public PagedMovieAdapter(Context context)
+   {
+      inflater = LayoutInflater.from(context);
+      queryScheduler = QueryScheduler.getInstance(context);
+      posterCache = PosterCache.getInstance(context);
+      keyPrefix = "movies@" + Integer.toHexString(hashCode()) + "/";
+      preferences = 
+         context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+      restoreFirstScreen();
+   }
+   
+   // start loading the saved first screen early, e.g. at process start
+   static void preloadFirstScreen(Context context)
+   {
+      context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+   }
+   
+   // show the rows saved by saveFirstScreen until reload replaces them
+   private void restoreFirstScreen()
+   {
+      String rows = preferences.getString(FIRST_SCREEN_KEY, null);
+      
+      if (rows == null)
+         return;
+      
+      try
+      {
+         Page page = new Page(new JSONArray(rows));
+         
+         if (page.ids.length > 0)
+         {
+            pages.add(page);
+            count = Math.max(page.ids.length, 
+               preferences.getInt(COUNT_KEY, 0));
+            showingSavedRows = true;
+         }
+      }
+      catch (JSONException e)
+      {
+         // unreadable; the list waits for the database instead
+      }
+   } // end method restoreFirstScreen
+   
+   // save the list's first rows for the next cold start; writes in the 
+   // background
+   public void saveFirstScreen()
+   {
+      if (reloading || pages.isEmpty() || pages.get(0).start != 0 || 
+         !pagesMode.isDefault() || !queuedRows.isEmpty())
+         return; // no unwritten rows in the saved screen
+      
+      Page page = pages.get(0);
+      JSONArray rows = new JSONArray();
+      
+      for (int i = 0; i < page.ids.length && i < PAGE_SIZE; ++i)
+         rows.put(page.ids[i]).put(page.names[i]);
+      
+      preferences.edit().putString(FIRST_SCREEN_KEY, rows.toString())
+         .putInt(COUNT_KEY, count).apply();
+   }
+   
+   // return true if rows have been read, or saved rows are being shown
+   public boolean isLoaded()
+   {
+      return !reloading || showingSavedRows;
+   }
+   
+   // return true if the rows shown are last session's saved rows
+   public boolean isShowingSavedRows()
+   {
+      return showingSavedRows;
+   }
+
+   // return the sort order and filters the list is switching or switched to
+   public MovieListMode getMode()
+   {
+      return mode;
+   }
+   
+   // list the movies in another sort order or with other filters, from 
+   // the top; the current rows stay until the first new page is read
+   public void setMode(MovieListMode newMode)
+   {
+      mode = newMode;
+      lastPosition = 0;
+      cancel(); // pages being read are of the old mode
+      reload();
+   }
+
+   // requery the list, keeping the rows currently on screen in place; 
+   // reloads requested before the last one ran collapse into one
+   public void reload()
+   {
+      final int start = lastPosition - lastPosition % PAGE_SIZE;
+      final MovieListMode readMode = mode;
+      
+      // a change of sort order alone keeps the count if nothing changed
+      final int knownCount = count;
+      final long knownCountVersion = 
+         readMode.hasSameFilters(pagesMode) ? countVersion : -1;
+      reloading = true;
+      
+      queryScheduler.submit(this, keyPrefix + "reload", 
+         QueryScheduler.PRIORITY_VISIBLE, new QueryScheduler.Query<Reload>()
+         {
+            @Override
+            protected Reload run(DatabaseConnector databaseConnector)
+            {
+               long readVersion = MovieChanges.getVersion();
+               Reload reload = new Reload();
+               reload.mode = readMode;
+               reload.page = readPage(databaseConnector, readMode, start, 
+                  PAGE_SIZE, SEEK_NONE, null, -1);
+               reload.count = readVersion >= 0 && 
+                  readVersion == knownCountVersion ? knownCount : 
+                  databaseConnector.getMovieCount(readMode);
+               
+               // only title order without filters has sections
+               if (readMode.isDefault())
+               {
+                  reload.groupCounts = getCachedGroupCounts(readVersion);
+                  
+                  if (reload.groupCounts == null)
+                     reload.groupCounts = 
+                        readGroupCounts(databaseConnector);
+               }
+               else
+                  reload.groupCounts = new int[GROUPS];
+               
+               if (MovieChanges.getVersion() != readVersion)
+                  readVersion = -1;
+               
+               reload.page.start = start;
+               reload.page.version = readVersion;
+               return reload;
+            }
+
+            @Override
+            protected void onResult(Reload result)
+            {
+               // a write overlapped the read, or a change applied since 
+               // it was read; the change will start, or has started, 
+               // another reload
+               if (result.page.version < version)
+                  return;
+
+               reloading = false;
+               showingSavedRows = false;
+               version = result.page.version;
+               pagesMode = result.mode;
+               count = result.count;
+               countVersion = version;
+               groupCounts = result.groupCounts;
+               queuedRows.clear(); // listed once they commit
+               updateSections();
+               pages.clear();
+               loadingPages.clear();
+               
+               if (result.page.ids.length > 0)
+                  pages.add(result.page);
+               
+               notifyDataSetChanged();
+            }
+         });
+   } // end method reload
+   
+   // cancel outstanding queries, e.g. when the list's fragment detaches
+   public void cancel()
+   {
+      queryScheduler.cancelAll(this);
+      loadingPages.clear();
+   }
+   
+   // apply a committed change to the loaded pages without requerying
+   @Override
+   public void onMovieChanged(int type, long rowID, String oldName, 
+      String newName, long changeVersion)
+   {
+      if (changeVersion <= version)
+         return; // the pages were read after the change
+      
+      version = changeVersion;
+      loadingPages.clear(); // rows in flight may be at stale positions
+      
+      // only the unfiltered title order is kept up to date row by row
+      if (reloading || type == MovieChanges.RESET || !pagesMode.isDefault())
+      {
+         reload();
+         return;
+      }
+      
+      if (queuedRows.containsKey(rowID))
+      {
+         // listed when its write was queued; unless a later write to the
+         // movie is queued, the list now matches the database again
+         if (equal(queuedRows.get(rowID), newName))
+            queuedRows.remove(rowID);
+      }
+      else if (!applyChange(type, rowID, oldName, newName))
+      {
+         reload(); // the pages did not match the database
+         return;
+      }
+      
+      // insertRow and deleteRow kept count, unless it counts queued rows
+      if (queuedRows.isEmpty())
+         countVersion = changeVersion;
+      
+      updateSections();
+      notifyDataSetChanged();
+   } // end method onMovieChanged
+   
+   // list a queued write at once, ahead of the database
+   @Override
+   public void onWriteQueued(int type, long rowID, String oldName, 
+      String newName)
+   {
+      // other modes, and pages about to be replaced, list it on commit
+      if (reloading || !pagesMode.isDefault())
+         return;
+      
+      // a row outside the loaded pages would take a position the 
+      // database cannot fill, so it is listed on commit instead
+      if (!isInLoadedRows(type, rowID, oldName, newName))
+      {
+         if (queuedRows.containsKey(rowID))
+            reload(); // listed ahead before; take it back out
+         
+         return;
+      }
+      
+      if (!applyChange(type, rowID, oldName, newName))
+      {
+         reload();
+         return;
+      }
+      
+      queuedRows.put(rowID, newName);
+      countVersion = -1; // counts a row the database does not have yet
+      updateSections();
+      notifyDataSetChanged();
+   } // end method onWriteQueued
+   
+   // replace a queued insert's temporary rowID by its database rowID, 
+   // before its change arrives
+   @Override
+   public void onInsertFinished(long temporaryID, long rowID)
+   {
+      if (!queuedRows.containsKey(temporaryID))
+         return; // not listed ahead
+      
+      String name = queuedRows.remove(temporaryID);
+      
+      if (rowID == -1)
+      {
+         if (name != null)
+            reload(); // failed; take the row back out
+         
+         return;
+      }
+      
+      // a movie deleted while its insert was written stays unlisted
+      queuedRows.put(rowID, name);
+      
+      if (name == null)
+         return;
+      
+      if (deleteRow(name, temporaryID) && insertRow(name, rowID))
+         notifyDataSetChanged();
+      else
+         reload();
+   } // end method onInsertFinished
+   
+   // undo a failed write by listing the database's rows again
+   @Override
+   public void onWriteFailed(long rowID)
+   {
+      if (queuedRows.containsKey(rowID))
+         reload();
+   }
+   
+   // return true if the rows a change removes and adds are in loaded 
+   // pages, so applying it moves no row the database would have to read
+   private boolean isInLoadedRows(int type, long rowID, String oldName, 
+      String newName)
+   {
+      if (type == MovieChanges.UPDATED && equal(oldName, newName))
+         return true; // nothing moves
+      
+      if (type != MovieChanges.INSERTED && !isInPages(oldName, rowID))
+         return false;
+      
+      return type == MovieChanges.DELETED || fitsInPages(newName, rowID);
+   }
+   
+   // return true if a loaded page holds the movie
+   private boolean isInPages(String name, long id)
+   {
+      for (Page page : pages)
+      {
+         if (page.find(name, id) >= 0)
+            return true;
+      }
+      
+      return false;
+   }
+   
+   // return true if insertRow would add the movie to a loaded page
+   private boolean fitsInPages(String name, long id)
+   {
+      if (pages.isEmpty())
+         return count == 0; // it would be the only row
+      
+      for (int i = 0; i < pages.size(); ++i)
+      {
+         Page page = pages.get(i);
+         int row = -page.find(name, id) - 1;
+         
+         if (row < 0)
+            return true; // already listed; insertRow reports it
+         
+         if (row < page.ids.length)
+            return row > 0 || 
+               page.start == (i > 0 ? pages.get(i - 1).end() : 0);
+      }
+      
+      return pages.get(pages.size() - 1).end() == count; // ends the list
+   } // end method fitsInPages
+   
+   // apply a change to the loaded pages and sections; returns false if 
+   // the pages do not match it
+   private boolean applyChange(int type, long rowID, String oldName, 
+      String newName)
+   {
+      boolean applied;
+      
+      if (type == MovieChanges.INSERTED)
+         applied = insertRow(newName, rowID);
+      else if (type == MovieChanges.DELETED)
+         applied = deleteRow(oldName, rowID);
+      else
+         applied = equal(oldName, newName) || 
+            (deleteRow(oldName, rowID) && insertRow(newName, rowID));
+      
+      if (!applied)
+         return false;
+      
+      // move the renamed, added or removed name between sections
+      if (type != MovieChanges.INSERTED)
+         --groupCounts[group(oldName)];
+      
+      if (type != MovieChanges.DELETED)
+         ++groupCounts[group(newName)];
+      
+      return true;
+   } // end method applyChange
+
+   @Override
+   public int getCount()
+   {
+      return count;
+   }
+   
+   @Override
+   public Object[] getSections()
+   {
+      return pagesMode.isDefault() ? SECTIONS : NO_SECTIONS;
+   }
+
+   // return the first position of a section, computed when it changed
+   @Override
+   public int getPositionForSection(int section)
+   {
+      return sectionPositions[Math.max(0, 
+         Math.min(section, SECTIONS.length - 1))];
+   }
+
+   // return the section of the row at position
+   @Override
+   public int getSectionForPosition(int position)
+   {
+      int low = 0;
+      int high = SECTIONS.length - 1;
+      
+      while (low < high) // find the last section starting at or before
+      {
+         int middle = (low + high + 1) >>> 1;
+         
+         if (sectionPositions[middle] <= position)
+            low = middle;
+         else
+            high = middle - 1;
+      }
+      
+      return low;
+   }
+   
+   // recompute each section's first position from the group counts and
+   // remember them for the next adapter
+   private void updateSections()
+   {
+      if (!pagesMode.isDefault())
+      {
+         Arrays.fill(sectionPositions, 0); // no sections
+         return;
+      }
+      
+      int position = 0;
+      
+      for (int group = 0; group < GROUPS; ++group)
+      {
+         if (group == DIGITS)
+            sectionPositions[0] = position;
+         else if (group >= FIRST_LETTER && group < FIRST_LETTER + 26)
+            sectionPositions[group - FIRST_LETTER + 1] = position;
+         
+         position += groupCounts[group];
+      }
+      
+      if (!queuedRows.isEmpty())
+         return; // the counts are ahead of the database
+      
+      synchronized (PagedMovieAdapter.class)
+      {
+         cachedGroupCounts = groupCounts.clone();
+         cachedGroupVersion = version;
+      }
+   } // end method updateSections
+   
+   // return a copy of the cached group counts if they are of version
+   private static synchronized int[] getCachedGroupCounts(long version)
+   {
+      if (version < 0 || version != cachedGroupVersion)
+         return null;
+      
+      return cachedGroupCounts.clone();
+   }
+   
+   // count the movie names in each group with one grouped query
+   private static int[] readGroupCounts(DatabaseConnector databaseConnector)
+   {
+      int[] counts = new int[GROUPS];
+      Cursor cursor = databaseConnector.getNameInitials();
+      
+      try
+      {
+         while (cursor.moveToNext())
+            counts[group(cursor.getString(0))] += cursor.getInt(1);
+      }
+      finally
+      {
+         cursor.close();
+      }
+      
+      return counts;
+   }
+   
+   // return the group of a name, by its first character as COLLATE 
+   // NOCASE compares it
+   private static int group(String name)
+   {
+      if (name == null || name.length() == 0)
+         return BEFORE_DIGITS;
+      
+      int c = name.codePointAt(0);
+      
+      if (c >= 'A' && c <= 'Z')
+         c += 'a' - 'A';
+      
+      if (c < '0')
+         return BEFORE_DIGITS;
+      else if (c <= '9')
+         return DIGITS;
+      else if (c < 'a')
+         return DIGITS + 1; // between digits and letters
+      else if (c <= 'z')
+         return FIRST_LETTER + c - 'a';
+      
+      return GROUPS - 1; // after the letters
+   } // end method group
+
+   // returns the movie name at position, or null if not loaded yet
+   @Override
+   public String getItem(int position)
+   {
+      Page page = findPage(position);
+      return page != null ? page.names[position - page.start] : null;
+   }
+
+   // returns the movie's rowID, or -1 if the row is not loaded yet
+   @Override
+   public long getItemId(int position)
+   {
+      Page page = findPage(position);
+      return page != null ? page.ids[position - page.start] : -1;
+   }
+
+   @Override
+   public View getView(int position, View convertView, ViewGroup parent)
+   {
+      if (convertView == null)
+      {
+         convertView = 
+            inflater.inflate(R.layout.movie_list_item, parent, false);
+         convertView.setTag(new RowViews(convertView));
+      }
+
+      // a recycled row's views are looked up once, when it was inflated
+      RowViews rowViews = (RowViews) convertView.getTag();
+      Page page = findPage(position);
+      rowViews.nameTextView.setText(page != null ? 
+         page.names[position - page.start] : "");
+      posterCache.load(rowViews.posterImageView, 
+         page != null ? page.ids[position - page.start] : -1);
+
+      // load this row and the rows about to scroll into view
+      lastPosition = position;
+      requestRows(position, QueryScheduler.PRIORITY_VISIBLE);
+      requestRows(position + PREFETCH_ROWS, QueryScheduler.PRIORITY_PREFETCH);
+      requestRows(position - PREFETCH_ROWS, QueryScheduler.PRIORITY_PREFETCH);
+      return convertView;
+   }
+
+   // return the index in pages of the first page ending after position
+   private int pageIndex(int position)
+   {
+      int low = 0;
+      int high = pages.size() - 1;
+
+      while (low <= high)
+      {
+         int middle = (low + high) >>> 1;
+
+         if (pages.get(middle).end() <= position)
+            low = middle + 1;
+         else
+            high = middle - 1;
+      }
+
+      return low;
+   }
+
+   // return the loaded page holding position, or null
+   private Page findPage(int position)
+   {
+      int index = pageIndex(position);
+
+      if (index < pages.size() && pages.get(index).start <= position)
+         return pages.get(index);
+
+      return null;
+   }
+
+   // load a page of rows around position unless position is loaded or 
+   // already loading at this priority; a prefetch that is still queued 
+   // is replaced when its rows come into view
+   private void requestRows(int position, int priority)
+   {
+      if (position < 0 || position >= count || findPage(position) != null ||
+         pagesMode != mode) // switching modes; reload reads the rows
+         return;
+
+      // the unloaded rows around position lie between two loaded pages
+      int index = pageIndex(position);
+      Page previous = index > 0 ? pages.get(index - 1) : null;
+      Page next = index < pages.size() ? pages.get(index) : null;
+      int gapStart = previous != null ? previous.end() : 0;
+      int gapEnd = next != null ? next.start : count;
+      int start;
+      int limit;
+      
+      int seek = SEEK_NONE;
+      String seekKey = null; // sort value of the row to seek from
+      long seekID = -1;
+      int section = getSectionForPosition(position);
+      int sectionStart = sectionPositions[section];
+      
+      // seek from a neighboring page when position is near it...
+      if (previous != null && position - gapStart < PAGE_SIZE)
+      {
+         start = gapStart;
+         limit = Math.min(PAGE_SIZE, gapEnd - gapStart);
+         seek = SEEK_AFTER;
+         seekKey = previous.key(previous.ids.length - 1);
+         seekID = previous.ids[previous.ids.length - 1];
+      }
+      else if (next != null && gapEnd - position <= PAGE_SIZE)
+      {
+         limit = Math.min(PAGE_SIZE, gapEnd - gapStart);
+         start = gapEnd - limit;
+         seek = SEEK_BEFORE;
+         seekKey = next.key(0);
+         seekID = next.ids[0];
+      }
+      else if (pagesMode.isDefault() && sectionStart >= gapStart && 
+         sectionStart <= position && position - sectionStart < PAGE_SIZE)
+      {
+         // ...or from the start of the section the fast scroller jumped 
+         // to, which sorts before every name in the section
+         start = sectionStart;
+         limit = Math.min(PAGE_SIZE, gapEnd - start);
+         seek = SEEK_AFTER;
+         seekKey = 
+            section == 0 ? "0" : SECTIONS[section].toLowerCase(Locale.US);
+         seekID = Long.MIN_VALUE;
+      }
+      else
+      {
+         start = Math.max(gapStart, position - position % PAGE_SIZE);
+         limit = Math.min(PAGE_SIZE, gapEnd - start);
+      }
+      
+      if (loadingPages.get(start, Integer.MAX_VALUE) <= priority)
+         return;
+
+      final MovieListMode requestMode = pagesMode;
+      final int pageStart = start;
+      final int pageLimit = limit;
+      final int pageSeek = seek;
+      final String pageSeekKey = seekKey;
+      final long pageSeekID = seekID;
+      final long requestVersion = version;
+      loadingPages.put(start, priority);
+      
+      queryScheduler.submit(this, keyPrefix + start, priority, 
+         new QueryScheduler.Query<Page>()
+         {
+            @Override
+            protected Page run(DatabaseConnector databaseConnector)
+            {
+               long readVersion = MovieChanges.getVersion();
+               Page page = readPage(databaseConnector, requestMode, 
+                  pageStart, pageLimit, pageSeek, pageSeekKey, pageSeekID);
+               page.start = pageStart;
+               page.version = MovieChanges.getVersion() == readVersion ? 
+                  readVersion : -1;
+               return page;
+            }
+
+            @Override
+            protected void onResult(Page result)
+            {
+               if (requestVersion != version)
+                  return; // positions changed; rows are requested again
+
+               loadingPages.delete(pageStart);
+               
+               // a pending change will request the rows again
+               if (result.version != version)
+                  return;
+               
+               // queued rows are listed where they will be, not where the
+               // database still has them; a page read before its 
+               // neighbor ends at the neighbor
+               int dropped = dropQueuedRows(result);
+               
+               if (pageSeek == SEEK_BEFORE)
+                  result.start += dropped;
+               
+               // rows the other pages already hold change nothing, and
+               // redrawing would only request them again
+               if (putPage(result))
+                  notifyDataSetChanged();
+            }
+         });
+   } // end method requestRows
+
+   // store a loaded page, trimming rows other pages already hold and 
+   // evicting the page farthest from the screen if over MAX_PAGES; 
+   // returns false if the page held no new rows
+   private boolean putPage(Page page)
+   {
+      int index = pageIndex(page.start);
+      int from = 0;
+      int to = page.ids.length;
+      
+      if (index < pages.size())
+         to = Math.min(to, pages.get(index).start - page.start);
+      
+      if (index > 0)
+         from = Math.max(from, pages.get(index - 1).end() - page.start);
+      
+      if (from >= to)
+         return false; // nothing new
+      
+      if (from > 0 || to < page.ids.length)
+      {
+         page.ids = Arrays.copyOfRange(page.ids, from, to);
+         page.names = Arrays.copyOfRange(page.names, from, to);
+         
+         if (page.keys != null)
+            page.keys = Arrays.copyOfRange(page.keys, from, to);
+         
+         page.start += from;
+      }
+      
+      pages.add(index, page);
+
+      if (pages.size() > MAX_PAGES)
+      {
+         int farthest = -1;
+
+         // queued rows are not in the database, so their pages stay
+         for (int i = 0; i < pages.size(); ++i)
+         {
+            if (!holdsQueuedRow(pages.get(i)) && (farthest == -1 || 
+               distance(pages.get(i)) > distance(pages.get(farthest))))
+               farthest = i;
+         }
+
+         if (farthest != -1)
+            pages.remove(farthest);
+      }
+      
+      return true;
+   } // end method putPage
+   
+   // remove the rows of queued writes from a page read from the 
+   // database; returns how many were removed
+   private int dropQueuedRows(Page page)
+   {
+      int dropped = 0;
+      
+      for (int row = page.ids.length - 1; 
+         row >= 0 && !queuedRows.isEmpty(); --row)
+      {
+         if (queuedRows.containsKey(page.ids[row]))
+         {
+            page.remove(row);
+            ++dropped;
+         }
+      }
+      
+      return dropped;
+   }
+   
+   // return true if the page lists a row ahead of the database
+   private boolean holdsQueuedRow(Page page)
+   {
+      for (long id : page.ids)
+      {
+         if (queuedRows.get(id) != null)
+            return true;
+      }
+      
+      return false;
+   }
+   
+   // return how far a page is from the rows on screen
+   private int distance(Page page)
+   {
+      if (lastPosition < page.start)
+         return page.start - lastPosition;
+      
+      return Math.max(0, lastPosition - page.end() + 1);
+   }
+   
+   // add an inserted movie to the pages, moving later rows down; returns 
+   // false if the pages do not match the database
+   private boolean insertRow(String name, long id)
+   {
+      ++count;
+      
+      for (int i = 0; i < pages.size(); ++i)
+      {
+         Page page = pages.get(i);
+         int row = page.find(name, id);
+         
+         if (row >= 0)
+            return false; // already listed
+         
+         row = -row - 1;
+         
+         if (row == page.ids.length)
+            continue; // sorts after this page
+         
+         // a row that sorts before the page's first row joins the page 
+         // only if no unloaded rows lie between the page and the last one
+         boolean joins = row > 0 || 
+            page.start == (i > 0 ? pages.get(i - 1).end() : 0);
+         
+         if (joins)
+         {
+            page.insert(row, name, name, id); // titles sort by name
+            ++i;
+         }
+         
+         shiftPages(i, 1);
+         return true;
+      }
+      
+      // after every loaded row; the last page may end the list
+      if (pages.isEmpty())
+      {
+         if (count == 1)
+            pages.add(new Page(id, name)); // the list was empty
+      }
+      else
+      {
+         Page last = pages.get(pages.size() - 1);
+         
+         if (last.end() == count - 1)
+            last.insert(last.ids.length, name, name, id);
+      }
+      
+      return true;
+   } // end method insertRow
+   
+   // remove a deleted movie from the pages, moving later rows up; 
+   // returns false if the pages do not match the database
+   private boolean deleteRow(String name, long id)
+   {
+      --count;
+      
+      for (int i = 0; i < pages.size(); ++i)
+      {
+         Page page = pages.get(i);
+         int row = page.find(name, id);
+         
+         if (row == -page.ids.length - 1)
+            continue; // sorts after this page
+         
+         if (row >= 0)
+         {
+            page.remove(row);
+            
+            if (page.ids.length == 0)
+               pages.remove(i);
+            else
+               ++i;
+         }
+         else if (row < -1 || 
+            page.start == (i > 0 ? pages.get(i - 1).end() : 0))
+            return false; // should have been in this page
+         
+         shiftPages(i, -1);
+         return true;
+      }
+      
+      return true; // after every loaded row
+   } // end method deleteRow
+   
+   // move pages from index on by rows positions
+   private void shiftPages(int index, int rows)
+   {
+      for (int i = index; i < pages.size(); ++i)
+         pages.get(i).start += rows;
+   }
+   
+   // return true if two names are the same string, or both null
+   private static boolean equal(String name1, String name2)
+   {
+      return name1 == null ? name2 == null : name1.equals(name2);
+   }
+   
+   // compare rows in the list's order: name COLLATE NOCASE, then _id; 
+   // NOCASE folds only ASCII letters, and code point order matches 
+   // SQLite's comparison of UTF-8 text
+   private static int compare(String name1, long id1, String name2, long id2)
+   {
+      if (name1 == null || name2 == null)
+      {
+         if (name1 != name2)
+            return name1 == null ? -1 : 1; // NULL sorts first
+      }
+      else
+      {
+         int i1 = 0;
+         int i2 = 0;
+         
+         while (i1 < name1.length() && i2 < name2.length())
+         {
+            int c1 = name1.codePointAt(i1);
+            int c2 = name2.codePointAt(i2);
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+            
+            if (c1 >= 'A' && c1 <= 'Z')
+               c1 += 'a' - 'A';
+            
+            if (c2 >= 'A' && c2 <= 'Z')
+               c2 += 'a' - 'A';
+            
+            if (c1 != c2)
+               return c1 < c2 ? -1 : 1;
+         }
+         
+         if (i1 < name1.length() || i2 < name2.length())
+            return i1 < name1.length() ? 1 : -1;
+      }
+      
+      return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+   } // end method compare
+
+   // read limit rows of the list in mode after the row (key, id), before
+   // it, or (for SEEK_NONE) starting at list position start
+   private static Page readPage(DatabaseConnector databaseConnector, 
+      MovieListMode mode, int start, int limit, int seek, String key, 
+      long id)
+   {
+      Cursor cursor;
+      
+      if (seek == SEEK_NONE)
+         cursor = databaseConnector.getMoviesAt(mode, start, limit);
+      else
+         cursor = databaseConnector.getMoviesNear(mode, seek == SEEK_BEFORE, 
+            key, id, limit);
+
+      try
+      {
+         return new Page(cursor, seek == SEEK_BEFORE);
+      }
+      finally
+      {
+         cursor.close();
+      }
+   }
+} // end class PagedMovieAdapter
@@ -0,0 +1,694 @@
+// PosterCache.java
+// Stores movie posters as files and shows them as list-row thumbnails
+// from a memory LRU cache backed by a disk cache of decoded thumbnails
+package com.deitel.movieapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+import android.widget.Toast;
+
+public class PosterCache implements MovieChanges.Listener
+{
+   private static final String TAG = "PosterCache";
+
+   // posters live in the app's files; thumbnails may be dropped by the
+   // system when space runs low, as they are decoded again on demand
+   private static final String POSTER_DIRECTORY = "posters";
+   private static final String THUMBNAIL_DIRECTORY = "poster_thumbnails";
+   private static final String POSTER_EXTENSION = ".jpg";
+
+   private static final int MAX_POSTER_SIZE = 1024; // stored poster, px
+   private static final int JPEG_QUALITY = 85;
+   private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+   private static final int MEMORY_FRACTION = 8; // of the app's heap
+   private static final int TEMP_STORAGE_BYTES = 16 * 1024; // per decode
+
+   // decoding is CPU bound and the GUI thread needs a core
+   private static final int THREAD_COUNT = 2;
+
+   // a RESET sweeps orphaned posters once no other RESET has followed for
+   // this long, so an import's batches or a burst of bulk deletes scan the
+   // movies once rather than once each
+   private static final long ORPHAN_SWEEP_DELAY_MILLIS = 2000;
+
+   private static PosterCache instance; // process-wide cache
+
+   // each decoding thread reuses one buffer instead of allocating a new
+   // one per image
+   private static final ThreadLocal<byte[]> tempStorage =
+      new ThreadLocal<byte[]>()
+      {
+         @Override
+         protected byte[] initialValue()
+         {
+            return new byte[TEMP_STORAGE_BYTES];
+         }
+      };
+
+   private final Context context;
+   private final File posterDirectory;
+   private final File thumbnailDirectory;
+   private final int thumbnailWidth; // px, the size of the list's poster
+   private final int thumbnailHeight;
+   private final LruCache<Long, Drawable> thumbnails; // by rowID
+   private final Drawable noPoster = new ColorDrawable(Color.TRANSPARENT);
+   private final ThreadPoolExecutor executor;
+   private final Handler handler = new Handler(Looper.getMainLooper());
+   private final Object diskLock = new Object();
+   private final Object posterLock = new Object(); // poster files
+   private final AtomicBoolean sweepQueued = // a sweep waits on executor
+      new AtomicBoolean();
+   private long diskBytes = -1; // thumbnail bytes on disk, -1 if uncounted
+
+   // changes on every invalidation, so a decode that overlapped a new
+   // poster cannot cache the old one; guarded by thumbnails
+   private long generation;
+
+   // a thumbnail being read for an ImageView, which holds the task as its
+   // tag until the thumbnail is shown or the view is bound to another row
+   private class LoadTask implements Runnable
+   {
+      final ImageView imageView; // touched only on the GUI thread
+      final long rowID;
+      final long readGeneration;
+      volatile boolean cancelled; // the row scrolled away
+
+      LoadTask(ImageView imageView, long rowID, long readGeneration)
+      {
+         this.imageView = imageView;
+         this.rowID = rowID;
+         this.readGeneration = readGeneration;
+      }
+
+      @Override
+      public void run()
+      {
+         if (cancelled)
+            return; // skipped without touching the disk
+
+         final Drawable thumbnail = readThumbnail(rowID);
+
+         synchronized (thumbnails)
+         {
+            if (readGeneration == generation)
+               thumbnails.put(rowID, thumbnail);
+         }
+
+         handler.post(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               if (imageView.getTag() != LoadTask.this)
+                  return; // bound to another row meanwhile
+
+               imageView.setTag(null);
+               imageView.setImageDrawable(thumbnail);
+            }
+         });
+      } // end method run
+   } // end class LoadTask
+
+   // return the process-wide PosterCache
+   public static synchronized PosterCache getInstance(Context context)
+   {
+      if (instance == null)
+         instance = new PosterCache(context.getApplicationContext());
+
+      return instance;
+   }
+
+   // private constructor; use getInstance
+   private PosterCache(Context context)
+   {
+      this.context = context;
+      posterDirectory = new File(context.getFilesDir(), POSTER_DIRECTORY);
+      thumbnailDirectory =
+         new File(context.getCacheDir(), THUMBNAIL_DIRECTORY);
+      thumbnailWidth = context.getResources().getDimensionPixelSize(
+         R.dimen.poster_thumbnail_width);
+      thumbnailHeight = context.getResources().getDimensionPixelSize(
+         R.dimen.poster_thumbnail_height);
+
+      // a share of the heap, so a few screens of thumbnails stay decoded
+      int memoryClass = ((ActivityManager) context.getSystemService(
+         Context.ACTIVITY_SERVICE)).getMemoryClass();
+      thumbnails = new LruCache<Long, Drawable>(
+         memoryClass * 1024 * 1024 / MEMORY_FRACTION)
+         {
+            @Override
+            protected int sizeOf(Long rowID, Drawable thumbnail)
+            {
+               if (thumbnail instanceof BitmapDrawable)
+                  return ((BitmapDrawable) thumbnail).getBitmap()
+                     .getByteCount();
+
+               return 1; // no poster
+            }
+         };
+
+      // last in, first out: the rows scrolled to most recently are the
+      // ones on screen, and those scrolled past are cancelled anyway
+      executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+         0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>()
+         {
+            @Override
+            public boolean offer(Runnable runnable)
+            {
+               return offerFirst(runnable);
+            }
+         },
+         new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+               return new Thread(TAG)
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                     runnable.run();
+                  }
+               };
+            }
+         });
+
+      // getInstance may first run on a background thread
+      handler.post(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            MovieChanges.addListener(PosterCache.this);
+         }
+      });
+   } // end PosterCache constructor
+
+   // show the movie's poster thumbnail in imageView, at once if it is in
+   // memory and otherwise once it has been read; rowIDs of unwritten
+   // movies show none
+   public void load(ImageView imageView, long rowID)
+   {
+      Object tag = imageView.getTag();
+
+      if (tag instanceof LoadTask)
+      {
+         LoadTask loading = (LoadTask) tag;
+
+         if (loading.rowID == rowID && !loading.cancelled)
+            return; // rebound to the row it is already loading
+
+         loading.cancelled = true;
+      }
+
+      Drawable thumbnail = rowID > 0 ? thumbnails.get(rowID) : noPoster;
+
+      if (thumbnail != null)
+      {
+         imageView.setTag(null);
+         imageView.setImageDrawable(thumbnail);
+         return;
+      }
+
+      long readGeneration;
+
+      synchronized (thumbnails)
+      {
+         readGeneration = generation;
+      }
+
+      LoadTask task = new LoadTask(imageView, rowID, readGeneration);
+      imageView.setTag(task);
+      imageView.setImageDrawable(null); // not another row's poster
+      executor.execute(task);
+   } // end method load
+
+   // copy the image at source into the movie's poster file, downsampled
+   // so it is no larger than needed, and record it in the movie's row;
+   // runs in the background
+   public void setPoster(final long rowID, final Uri source)
+   {
+      executor.execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               // a file and its row change together, as removeOrphans 
+               // deletes files that no row names
+               synchronized (posterLock)
+               {
+                  writePoster(rowID, source);
+                  invalidate(rowID); // before the list hears of the change
+                  new DatabaseConnector(context).setPoster(
+                     rowID, posterFile(rowID).getName());
+               }
+            }
+            catch (Exception e) // IOException, SQLException or bad image
+            {
+               Log.w(TAG, "saving the poster of movie " + rowID +
+                  " failed", e);
+               handler.post(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     Toast.makeText(context, R.string.error_poster,
+                        Toast.LENGTH_LONG).show();
+                  }
+               });
+            }
+         }
+      });
+   } // end method setPoster
+
+   // delete a deleted movie's poster, or after the library was replaced 
+   // every poster no movie names; runs in the background
+   @Override
+   public void onMovieChanged(int type, final long rowID, 
+      String oldName, String newName, long version)
+   {
+      if (type == MovieChanges.RESET)
+      {
+         handler.removeCallbacks(queueOrphanSweep);
+         handler.postDelayed(queueOrphanSweep, ORPHAN_SWEEP_DELAY_MILLIS);
+         return;
+      }
+      
+      if (type != MovieChanges.DELETED)
+         return;
+
+      executor.execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            synchronized (posterLock)
+            {
+               posterFile(rowID).delete();
+            }
+
+            invalidate(rowID);
+         }
+      });
+   } // end method onMovieChanged
+
+   // queues one sweep unless one is already waiting to run; a sweep that
+   // has started may have read the movies before the latest RESET, so
+   // another is queued behind it
+   private final Runnable queueOrphanSweep = new Runnable()
+   {
+      @Override
+      public void run()
+      {
+         if (!sweepQueued.compareAndSet(false, true))
+            return;
+
+         executor.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               sweepQueued.set(false);
+               removeOrphans();
+            }
+         });
+      }
+   };
+
+   // return hit, miss and eviction counts for dumpsys
+   public String getStatistics()
+   {
+      long onDisk;
+
+      synchronized (diskLock)
+      {
+         onDisk = Math.max(0, diskBytes);
+      }
+
+      return String.format(Locale.US,
+         "poster cache: %d/%d KB, %d hits, %d misses, %d evictions, " +
+         "%d KB of thumbnails on disk%n", thumbnails.size() / 1024,
+         thumbnails.maxSize() / 1024, thumbnails.hitCount(),
+         thumbnails.missCount(), thumbnails.evictionCount(), onDisk / 1024);
+   }
+
+   // return the file holding the movie's poster; named by rowID so rows
+   // can be shown without reading the poster column
+   private File posterFile(long rowID)
+   {
+      return new File(posterDirectory, rowID + POSTER_EXTENSION);
+   }
+
+   private File thumbnailFile(long rowID)
+   {
+      return new File(thumbnailDirectory, rowID + POSTER_EXTENSION);
+   }
+
+   // delete the poster files no movie names, e.g. those of movies 
+   // removed by a bulk delete or a restore
+   private void removeOrphans()
+   {
+      synchronized (posterLock)
+      {
+         File[] files = posterDirectory.listFiles();
+
+         if (files == null || files.length == 0)
+            return;
+
+         Set<String> named = new HashSet<String>();
+         DatabaseConnector databaseConnector = new DatabaseConnector(context);
+         databaseConnector.open();
+
+         try
+         {
+            Cursor cursor = databaseConnector.getPosters();
+
+            try
+            {
+               while (cursor.moveToNext())
+                  named.add(cursor.getString(0));
+            }
+            finally
+            {
+               cursor.close();
+            }
+         }
+         catch (Exception e) // SQLException; keep every file
+         {
+            Log.w(TAG, "reading the poster names failed", e);
+            return;
+         }
+         finally
+         {
+            databaseConnector.close();
+         }
+
+         for (File file : files)
+         {
+            if (!named.contains(file.getName()) && file.delete())
+               invalidate(rowID(file.getName()));
+         }
+      } // end synchronized
+   } // end method removeOrphans
+
+   // return the rowID a poster file is named by, or -1
+   private static long rowID(String fileName)
+   {
+      try
+      {
+         return Long.parseLong(fileName.substring(0,
+            fileName.length() - POSTER_EXTENSION.length()));
+      }
+      catch (RuntimeException e) // not a poster's name
+      {
+         return -1;
+      }
+   }
+
+   // forget the movie's thumbnail in memory and on disk
+   private void invalidate(long rowID)
+   {
+      synchronized (thumbnails)
+      {
+         ++generation;
+         thumbnails.remove(rowID);
+      }
+
+      synchronized (diskLock)
+      {
+         File thumbnail = thumbnailFile(rowID);
+         long length = thumbnail.length();
+
+         if (thumbnail.delete() && diskBytes >= 0)
+            diskBytes -= length;
+      }
+   } // end method invalidate
+
+   // return the movie's thumbnail from the disk cache, or decoded from its
+   // poster and added to the disk cache, or noPoster
+   private Drawable readThumbnail(long rowID)
+   {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inPreferredConfig = Bitmap.Config.RGB_565; // half of ARGB
+      options.inTempStorage = tempStorage.get();
+      File thumbnail = thumbnailFile(rowID);
+      Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+
+      if (bitmap != null)
+      {
+         thumbnail.setLastModified(System.currentTimeMillis()); // for trim
+         return new BitmapDrawable(context.getResources(), bitmap);
+      }
+
+      File poster = posterFile(rowID);
+
+      if (!poster.exists())
+         return noPoster;
+
+      // decode only every inSampleSize-th pixel, then scale and crop the
+      // rest to exactly the row's size
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeFile(poster.getPath(), options);
+      options.inJustDecodeBounds = false;
+      options.inSampleSize = sampleSize(options.outWidth, options.outHeight,
+         thumbnailWidth, thumbnailHeight);
+      bitmap = BitmapFactory.decodeFile(poster.getPath(), options);
+
+      if (bitmap == null)
+         return noPoster; // not an image after all
+
+      bitmap = cropToThumbnail(bitmap);
+
+      try
+      {
+         writeThumbnail(rowID, bitmap);
+      }
+      catch (IOException e)
+      {
+         Log.w(TAG, "caching the thumbnail of movie " + rowID +
+            " failed", e); // decoded again next time
+      }
+
+      return new BitmapDrawable(context.getResources(), bitmap);
+   } // end method readThumbnail
+
+   // return bitmap scaled to cover the thumbnail size, centered and
+   // cropped to it; bitmap is recycled
+   private Bitmap cropToThumbnail(Bitmap bitmap)
+   {
+      float scale = Math.max((float) thumbnailWidth / bitmap.getWidth(),
+         (float) thumbnailHeight / bitmap.getHeight());
+      int width = Math.max(thumbnailWidth,
+         Math.round(bitmap.getWidth() * scale));
+      int height = Math.max(thumbnailHeight,
+         Math.round(bitmap.getHeight() * scale));
+      Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+      if (scaled != bitmap)
+         bitmap.recycle();
+
+      Bitmap cropped = Bitmap.createBitmap(scaled,
+         (width - thumbnailWidth) / 2, (height - thumbnailHeight) / 2,
+         thumbnailWidth, thumbnailHeight);
+
+      if (cropped != scaled)
+         scaled.recycle();
+
+      return cropped;
+   } // end method cropToThumbnail
+
+   // add a thumbnail to the disk cache, then trim the least recently used
+   // thumbnails if the cache has grown past MAX_DISK_BYTES
+   private void writeThumbnail(long rowID, Bitmap bitmap) throws IOException
+   {
+      File thumbnail = thumbnailFile(rowID);
+      writeJpeg(bitmap, thumbnail);
+
+      synchronized (diskLock)
+      {
+         if (diskBytes < 0) // first thumbnail written by this process
+            diskBytes = totalLength(thumbnailDirectory.listFiles());
+         else
+            diskBytes += thumbnail.length();
+
+         if (diskBytes <= MAX_DISK_BYTES)
+            return;
+
+         // trim to three quarters so the next writes do not trim again
+         File[] files = thumbnailDirectory.listFiles();
+
+         if (files == null)
+            return;
+
+         Arrays.sort(files, new Comparator<File>()
+         {
+            @Override
+            public int compare(File file1, File file2)
+            {
+               long modified1 = file1.lastModified();
+               long modified2 = file2.lastModified();
+               return modified1 < modified2 ? -1 :
+                  (modified1 == modified2 ? 0 : 1);
+            }
+         });
+
+         for (int i = 0; i < files.length &&
+            diskBytes > MAX_DISK_BYTES * 3 / 4; ++i)
+         {
+            long length = files[i].length();
+
+            if (files[i].delete())
+               diskBytes -= length;
+         }
+      } // end synchronized
+   } // end method writeThumbnail
+
+   // copy the image at source into the movie's poster file, no larger than
+   // MAX_POSTER_SIZE on its longer side
+   private void writePoster(long rowID, Uri source) throws IOException
+   {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inTempStorage = tempStorage.get();
+      options.inJustDecodeBounds = true;
+      decodeStream(source, options);
+
+      if (options.outWidth <= 0 || options.outHeight <= 0)
+         throw new IOException("Not an image: " + source);
+
+      float scale = Math.min(1, (float) MAX_POSTER_SIZE /
+         Math.max(options.outWidth, options.outHeight));
+      int width = Math.max(1, Math.round(options.outWidth * scale));
+      int height = Math.max(1, Math.round(options.outHeight * scale));
+      options.inJustDecodeBounds = false;
+      options.inSampleSize =
+         sampleSize(options.outWidth, options.outHeight, width, height);
+      Bitmap bitmap = decodeStream(source, options);
+
+      if (bitmap == null)
+         throw new IOException("Not an image: " + source);
+
+      Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+      if (scaled != bitmap)
+         bitmap.recycle();
+
+      try
+      {
+         writeJpeg(scaled, posterFile(rowID));
+      }
+      finally
+      {
+         scaled.recycle();
+      }
+   } // end method writePoster
+
+   // decode the image at source with options
+   private Bitmap decodeStream(Uri source, BitmapFactory.Options options)
+      throws IOException
+   {
+      InputStream input =
+         context.getContentResolver().openInputStream(source);
+
+      try
+      {
+         return BitmapFactory.decodeStream(input, null, options);
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   // write bitmap to file as a JPEG, replacing file only once it is whole
+   private static void writeJpeg(Bitmap bitmap, File file)
+      throws IOException
+   {
+      File directory = file.getParentFile();
+
+      if (!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Cannot create " + directory);
+
+      File partial = new File(directory, file.getName() + ".tmp");
+      OutputStream output = new FileOutputStream(partial);
+
+      try
+      {
+         if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY,
+            output))
+            throw new IOException("Cannot compress " + file);
+      }
+      finally
+      {
+         output.close();
+      }
+
+      if (!partial.renameTo(file))
+      {
+         partial.delete();
+         throw new IOException("Cannot replace " + file);
+      }
+   } // end method writeJpeg
+
+   // return the largest power of two by which an image of width by height
+   // can be subsampled and still cover targetWidth by targetHeight
+   private static int sampleSize(int width, int height, int targetWidth,
+      int targetHeight)
+   {
+      int sampleSize = 1;
+
+      while (width / (sampleSize * 2) >= targetWidth &&
+         height / (sampleSize * 2) >= targetHeight)
+         sampleSize *= 2;
+
+      return sampleSize;
+   }
+
+   // return the total size of files, which may be null
+   private static long totalLength(File[] files)
+   {
+      long length = 0;
+
+      if (files != null)
+      {
+         for (File file : files)
+            length += file.length();
+      }
+
+      return length;
+   }
+} // end class PosterCache
@@ -0,0 +1,272 @@
+// QueryScheduler.java
+// Runs database reads on a small thread pool with priorities, coalescing
+// and per-owner cancellation
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+public class QueryScheduler
+{
+   // priority lanes; lower values run first
+   public static final int PRIORITY_VISIBLE = 0; // rows on screen now
+   public static final int PRIORITY_PREFETCH = 1; // rows about to be shown
+   public static final int PRIORITY_BACKGROUND = 2; // everything else
+
+   private static final String TAG = "QueryScheduler";
+
+   // WAL lets this many reads run at the same time
+   private static final int THREAD_COUNT = 2;
+
+   // a unit of database work whose result is delivered on the GUI thread
+   public abstract static class Query<T>
+   {
+      private final CancellationSignal cancellationSignal =
+         new CancellationSignal();
+
+      // runs on a scheduler thread with databaseConnector open; pass
+      // getCancellationSignal() to long queries so cancel() can stop them
+      protected abstract T run(DatabaseConnector databaseConnector);
+
+      // receives the result of run on the GUI thread
+      protected abstract void onResult(T result);
+
+      // receives the result of a query cancelled after run finished, e.g.
+      // to close a Cursor; called on the GUI thread
+      protected void onCancelled(T result)
+      {
+      }
+
+      // called on the GUI thread instead of onResult when run threw; 
+      // by default the query is treated as cancelled with no result
+      protected void onFailed(RuntimeException e)
+      {
+         onCancelled(null);
+      }
+
+      // return the signal that aborts this query's SQLite work
+      protected CancellationSignal getCancellationSignal()
+      {
+         return cancellationSignal;
+      }
+
+      // return true if the query was cancelled
+      public boolean isCancelled()
+      {
+         return cancellationSignal.isCanceled();
+      }
+
+      // cancel the query; its result will not reach onResult
+      public void cancel()
+      {
+         cancellationSignal.cancel();
+      }
+   } // end class Query
+
+   private static QueryScheduler instance; // process-wide scheduler
+
+   private final Context context; // for each task's DatabaseConnector
+   private final ThreadPoolExecutor executor;
+   private final Handler handler = new Handler(Looper.getMainLooper());
+   private final Object lock = new Object();
+   private final Map<String, Task> pendingTasks = // by coalescing key
+      new HashMap<String, Task>();
+   private final List<Task> tasks = new ArrayList<Task>(); // queued/running
+   private long sequence; // orders tasks of equal priority
+
+   // return the process-wide QueryScheduler
+   public static synchronized QueryScheduler getInstance(Context context)
+   {
+      if (instance == null)
+         instance = new QueryScheduler(context.getApplicationContext());
+
+      return instance;
+   }
+
+   // private constructor; use getInstance
+   private QueryScheduler(Context context)
+   {
+      this.context = context;
+      executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+         0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+         new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+               return new Thread("QueryScheduler")
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                     runnable.run();
+                  }
+               };
+            }
+         });
+   }
+
+   // queues query for owner; a query still waiting under the same key is
+   // cancelled and replaced, so repeated reloads collapse into one
+   public <T> void submit(Object owner, String key, int priority,
+      Query<T> query)
+   {
+      synchronized (lock)
+      {
+         Task task = new Task(owner, key, priority, sequence++, query);
+
+         if (key != null)
+         {
+            Task pending = pendingTasks.put(key, task);
+
+            if (pending != null)
+            {
+               pending.query.cancel();
+               tasks.remove(pending);
+               executor.remove(pending);
+            }
+         }
+
+         tasks.add(task);
+         executor.execute(task);
+      }
+   }
+
+   // cancel every queued or running query submitted by owner, e.g. when
+   // a Fragment detaches
+   public void cancelAll(Object owner)
+   {
+      synchronized (lock)
+      {
+         for (int i = tasks.size() - 1; i >= 0; --i)
+         {
+            Task task = tasks.get(i);
+
+            if (task.owner == owner)
+            {
+               task.query.cancel();
+
+               if (executor.remove(task)) // had not started yet
+               {
+                  tasks.remove(i);
+                  forgetPending(task);
+               }
+            }
+         }
+      }
+   }
+
+   // remove task from the pending map if it is still registered there
+   private void forgetPending(Task task)
+   {
+      if (task.key != null && pendingTasks.get(task.key) == task)
+         pendingTasks.remove(task.key);
+   }
+
+   // a submitted query with its scheduling information
+   private class Task implements Runnable, Comparable<Task>
+   {
+      final Object owner;
+      final String key;
+      final int priority;
+      final long order;
+      final Query<Object> query;
+
+      @SuppressWarnings("unchecked")
+      Task(Object owner, String key, int priority, long order,
+         Query<?> query)
+      {
+         this.owner = owner;
+         this.key = key;
+         this.priority = priority;
+         this.order = order;
+         this.query = (Query<Object>) query;
+      }
+
+      @Override
+      public int compareTo(Task another)
+      {
+         if (priority != another.priority)
+            return priority < another.priority ? -1 : 1;
+
+         return order < another.order ? -1 : (order == another.order ? 0 : 1);
+      }
+
+      @Override
+      public void run()
+      {
+         synchronized (lock)
+         {
+            forgetPending(this); // later submissions queue a fresh task
+         }
+
+         Object result = null;
+         RuntimeException failure = null;
+
+         if (!query.isCancelled())
+         {
+            // connectors are not shared between threads, but all of them
+            // use the same process-wide connection
+            DatabaseConnector databaseConnector = 
+               new DatabaseConnector(context);
+
+            try
+            {
+               databaseConnector.open();
+               result = query.run(databaseConnector);
+            }
+            catch (OperationCanceledException e)
+            {
+               // query.cancel() stopped SQLite; nothing to deliver
+            }
+            catch (RuntimeException e)
+            {
+               // keep the pool thread; the caller still hears back below
+               Log.w(TAG, "query " + key + " failed", e);
+               failure = e;
+            }
+            finally
+            {
+               databaseConnector.close();
+            }
+         }
+
+         final Object taskResult = result;
+         final RuntimeException taskFailure = failure;
+         handler.post(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               synchronized (lock)
+               {
+                  tasks.remove(Task.this);
+               }
+
+               if (query.isCancelled())
+                  query.onCancelled(taskResult);
+               else if (taskFailure != null)
+                  query.onFailed(taskFailure);
+               else
+                  query.onResult(taskResult);
+            }
+         });
+      } // end method run
+   } // end class Task
+} // end class QueryScheduler
@@ -0,0 +1,637 @@
+// SchemaMigrations.java
+// Upgrades the UserMovies schema, copying large tables in resumable chunks
+package com.deitel.movieapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+class SchemaMigrations
+{
+   private static final String TAG = "SchemaMigrations";
+
+   // rows copied per transaction
+   private static final int CHUNK_SIZE = 2000;
+
+   // time onUpgrade may spend copying before deferring to the background
+   private static final long UPGRADE_BUDGET_MILLIS = 100;
+
+   // pause between background chunks so app writes are not starved
+   private static final long CHUNK_PAUSE_MILLIS = 20;
+
+   // one step in the schema's history, applied in version order
+   abstract static class Migration
+   {
+      final int version; // schema version this migration produces
+
+      Migration(int version)
+      {
+         this.version = version;
+      }
+
+      // makes the quick schema changes; runs inside onUpgrade
+      abstract void upgrade(SQLiteDatabase db);
+
+      // copies the rows after lastRowID, at most chunkSize of them, and
+      // returns the last row ID copied or -1 once nothing is left
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         return -1;
+      }
+
+      // completes the migration once every chunk has been copied
+      void finish(SQLiteDatabase db)
+      {
+      }
+
+      // adds a column to movies unless it is already there
+      static void addColumn(SQLiteDatabase db, String column, String type)
+      {
+         if (!getColumns(db, "movies").containsKey(column))
+            db.execSQL("ALTER TABLE movies ADD COLUMN " + column + " " + 
+               type);
+      }
+
+      // returns the types of table's columns by name, in table order
+      static Map<String, String> getColumns(SQLiteDatabase db, String table)
+      {
+         Map<String, String> columns = new LinkedHashMap<String, String>();
+         Cursor cursor = 
+            db.rawQuery("PRAGMA table_info(" + table + ")", null);
+
+         try
+         {
+            while (cursor.moveToNext())
+               columns.put(cursor.getString(1), cursor.getString(2));
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         return columns;
+      }
+
+      // returns the _id ending the chunk of movies after lastRowID, or -1
+      // if no movies are left
+      static long findChunkEnd(SQLiteDatabase db, long lastRowID,
+         int chunkSize)
+      {
+         Cursor cursor = db.rawQuery("SELECT MAX(_id) FROM " +
+            "(SELECT _id FROM movies WHERE _id>? ORDER BY _id LIMIT ?)",
+            new String[] {
+               String.valueOf(lastRowID), String.valueOf(chunkSize) });
+
+         try
+         {
+            cursor.moveToFirst();
+            return cursor.isNull(0) ? -1 : cursor.getLong(0);
+         }
+         finally
+         {
+            cursor.close();
+         }
+      }
+   } // end class Migration
+
+   // every migration, oldest first
+   private static final Migration[] MIGRATIONS =
+   {
+      new YearColumnMigration(),
+      new SearchIndexMigration(),
+      new PeopleMigration(),
+      new StatisticsMigration(),
+      new ListOrderMigration(),
+      new PosterMigration(),
+      new MatchHashMigration()
+   };
+
+   private static boolean backgroundRunning; // one runner per process
+
+   // called from onUpgrade to bring the schema to newVersion; small
+   // databases are migrated completely, large ones resume in the background
+   static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+   {
+      db.execSQL(MovieSchema.CREATE_SCHEMA_MIGRATIONS_TABLE);
+
+      for (Migration migration : MIGRATIONS)
+      {
+         if (migration.version > oldVersion &&
+            migration.version <= newVersion)
+         {
+            Log.i(TAG, "upgrading to schema version " + migration.version);
+            migration.upgrade(db);
+            db.execSQL("INSERT OR REPLACE INTO schema_migrations " +
+               "(version, last_row_id) VALUES (?, 0)",
+               new Object[] { migration.version });
+         }
+      }
+
+      runPending(db, UPGRADE_BUDGET_MILLIS);
+   }
+
+   // creates any missing secondary index, e.g. after an interrupted import;
+   // skipped while a migration is still rebuilding the movies table
+   static void ensureIndexes(SQLiteDatabase db)
+   {
+      if (hasPending(db))
+         return;
+
+      for (String sql : MovieSchema.CREATE_MOVIES_INDEXES)
+         db.execSQL(sql);
+
+      db.execSQL(MovieSchema.CREATE_MATCH_HASH_INDEX);
+   }
+
+   // returns true if a migration still has rows to copy
+   static boolean hasPending(SQLiteDatabase db)
+   {
+      return DatabaseUtils.queryNumEntries(db, "schema_migrations") > 0;
+   }
+
+   // resumes unfinished migrations on a low-priority thread, then checks
+   // the indexes; nothing here needs to delay the first query
+   static void resumeInBackground(final Context context)
+   {
+      synchronized (SchemaMigrations.class)
+      {
+         if (backgroundRunning)
+            return;
+
+         backgroundRunning = true;
+      }
+
+      new Thread(TAG)
+      {
+         @Override
+         public void run()
+         {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            DatabaseConnector databaseConnector =
+               new DatabaseConnector(context);
+            databaseConnector.open();
+
+            try
+            {
+               // one chunk at a time, pausing so foreground work gets in
+               while (!runPending(databaseConnector.getDatabase(), 0))
+                  SystemClock.sleep(CHUNK_PAUSE_MILLIS);
+               
+               ensureIndexes(databaseConnector.getDatabase());
+            }
+            finally
+            {
+               databaseConnector.close();
+
+               synchronized (SchemaMigrations.class)
+               {
+                  backgroundRunning = false;
+               }
+            }
+         }
+      }.start();
+   } // end method resumeInBackground
+
+   // copies chunks until every migration is finished or budgetMillis has
+   // elapsed (at least one chunk runs); returns true when nothing is left
+   private static boolean runPending(SQLiteDatabase db, long budgetMillis)
+   {
+      long deadline = SystemClock.elapsedRealtime() + budgetMillis;
+
+      for (Migration migration : MIGRATIONS)
+      {
+         long lastRowID = pendingRowID(db, migration.version);
+
+         while (lastRowID >= 0)
+         {
+            // each chunk commits together with its progress marker, so an
+            // interrupted migration resumes after the last committed chunk
+            db.beginTransactionNonExclusive();
+
+            try
+            {
+               lastRowID = migration.migrateChunk(db, lastRowID, CHUNK_SIZE);
+
+               if (lastRowID < 0)
+               {
+                  migration.finish(db);
+                  db.delete("schema_migrations", "version=?",
+                     new String[] { String.valueOf(migration.version) });
+                  Log.i(TAG, "finished schema version " + migration.version);
+               }
+               else
+               {
+                  db.execSQL("UPDATE schema_migrations SET last_row_id=? " +
+                     "WHERE version=?",
+                     new Object[] { lastRowID, migration.version });
+               }
+
+               db.setTransactionSuccessful();
+            }
+            finally
+            {
+               db.endTransaction();
+            }
+
+            if (lastRowID >= 0 && SystemClock.elapsedRealtime() >= deadline)
+               return false; // out of time; resume later
+         }
+      }
+
+      return true;
+   } // end method runPending
+
+   // returns the last row copied by an unfinished migration, or -1
+   private static long pendingRowID(SQLiteDatabase db, int version)
+   {
+      Cursor cursor = db.rawQuery(
+         "SELECT last_row_id FROM schema_migrations WHERE version=?",
+         new String[] { String.valueOf(version) });
+
+      try
+      {
+         return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+      }
+      finally
+      {
+         cursor.close();
+      }
+   }
+
+   // version 2: year becomes an INTEGER column and movies gets indexes;
+   // rows are copied into movies_v2, which then replaces movies. Columns
+   // later versions add to movies while the copy is pending are added to
+   // movies_v2 too, so the app's writes to them are copied with the rows
+   private static class YearColumnMigration extends Migration
+   {
+      // converts a TEXT year to INTEGER, or NULL if it is not a number
+      private static final String YEAR =
+         "CASE WHEN trim(%1$s.year) GLOB '[0-9]*' " +
+         "THEN CAST(trim(%1$s.year) AS INTEGER) END";
+
+      public YearColumnMigration()
+      {
+         super(2);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         db.execSQL("CREATE TABLE movies_v2" +
+            "(_id integer primary key autoincrement," +
+            "name TEXT, director TEXT, writer TEXT, " +
+            "actor TEXT, actress TEXT, genre TEXT, year INTEGER)");
+         db.execSQL("CREATE TRIGGER movies_v2_delete AFTER DELETE ON movies " +
+            "BEGIN DELETE FROM movies_v2 WHERE _id=old._id; END");
+         addLaterColumns(db);
+      }
+
+      @Override
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         // the upgrades run since upgrade may have added columns; the
+         // first chunk of every upgrade runs before the app writes
+         String columns = addLaterColumns(db);
+         long chunkEnd = findChunkEnd(db, lastRowID, chunkSize);
+
+         if (chunkEnd < 0)
+            return -1; // every row has been copied
+
+         db.execSQL("INSERT OR REPLACE INTO movies_v2 (" + columns +
+            ") SELECT " + copyValues(db, "movies") +
+            " FROM movies WHERE _id>? AND _id<=?",
+            new Object[] { lastRowID, chunkEnd });
+         return chunkEnd;
+      }
+
+      @Override
+      void finish(SQLiteDatabase db)
+      {
+         addLaterColumns(db);
+
+         // triggers on movies added by later versions are dropped with 
+         // it; they are recreated on the new table
+         List<String> triggers = new ArrayList<String>();
+         Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master " +
+            "WHERE type='trigger' AND tbl_name='movies' " +
+            "AND name NOT LIKE 'movies_v2_%'", null);
+
+         try
+         {
+            while (cursor.moveToNext())
+               triggers.add(cursor.getString(0));
+         }
+         finally
+         {
+            cursor.close();
+         }
+
+         // carry the AUTOINCREMENT counter over so deleted IDs are not
+         // reused, then swap the tables (dropping movies drops its triggers)
+         db.execSQL("DELETE FROM sqlite_sequence WHERE name='movies_v2'");
+         db.execSQL(
+            "UPDATE sqlite_sequence SET name='movies_v2' WHERE name='movies'");
+         db.execSQL("DROP TABLE movies");
+         db.execSQL("ALTER TABLE movies_v2 RENAME TO movies");
+
+         for (String sql : triggers)
+            db.execSQL(sql);
+
+         db.execSQL("CREATE INDEX IF NOT EXISTS movies_name " +
+            "ON movies (name COLLATE NOCASE)");
+         db.execSQL("CREATE INDEX IF NOT EXISTS movies_director " +
+            "ON movies (director COLLATE NOCASE)");
+         db.execSQL("CREATE INDEX IF NOT EXISTS movies_genre " +
+            "ON movies (genre COLLATE NOCASE)");
+         db.execSQL("CREATE INDEX IF NOT EXISTS movies_year ON movies (year)");
+      } // end method finish
+
+      // adds the columns of movies that movies_v2 lacks and recreates the
+      // trigger that makes rows already copied follow later edits to 
+      // movies; returns movies_v2's column list
+      private static String addLaterColumns(SQLiteDatabase db)
+      {
+         Map<String, String> columns = getColumns(db, "movies_v2");
+         Map<String, String> movieColumns = getColumns(db, "movies");
+         boolean added = false;
+
+         for (Map.Entry<String, String> column : movieColumns.entrySet())
+         {
+            if (!columns.containsKey(column.getKey()))
+            {
+               db.execSQL("ALTER TABLE movies_v2 ADD COLUMN " + 
+                  column.getKey() + " " + column.getValue());
+               added = true;
+            }
+         }
+
+         if (added)
+            columns = getColumns(db, "movies_v2");
+
+         String names = TextUtils.join(", ", columns.keySet());
+         db.execSQL("DROP TRIGGER IF EXISTS movies_v2_update");
+         db.execSQL("CREATE TRIGGER movies_v2_update AFTER UPDATE ON movies " +
+            "WHEN new._id <= " +
+            "(SELECT last_row_id FROM schema_migrations WHERE version=2) " +
+            "BEGIN INSERT OR REPLACE INTO movies_v2 (" + names + ") " +
+            "VALUES (" + copyValues(db, "new") + "); END");
+         return names;
+      } // end method addLaterColumns
+
+      // returns the values of movies_v2's columns taken from a row of 
+      // movies named row, converting its year
+      private static String copyValues(SQLiteDatabase db, String row)
+      {
+         List<String> values = new ArrayList<String>();
+
+         for (String column : getColumns(db, "movies_v2").keySet())
+            values.add("year".equals(column) ? 
+               String.format(YEAR, row) : row + "." + column);
+
+         return TextUtils.join(", ", values);
+      }
+   } // end class YearColumnMigration
+
+   // version 3: adds the movies_fts full-text index and fills it from movies
+   private static class SearchIndexMigration extends Migration
+   {
+      public SearchIndexMigration()
+      {
+         super(3);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         db.execSQL("CREATE VIRTUAL TABLE movies_fts USING fts4" +
+            "(name, director, writer, actor, actress, genre, " +
+            "prefix=\"1,2,3\")");
+      }
+
+      @Override
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         long chunkEnd = findChunkEnd(db, lastRowID, chunkSize);
+
+         if (chunkEnd < 0)
+            return -1; // every row has been indexed
+
+         // DatabaseConnector indexes the movies it saves (whose people may
+         // already be in credits), so only add movies not indexed yet
+         Object[] range = 
+            new Object[] { lastRowID, chunkEnd, lastRowID, chunkEnd };
+         db.execSQL("INSERT INTO movies_fts (docid, name, director, " +
+            "writer, actor, actress, genre) SELECT _id, name, director, " +
+            "writer, actor, actress, genre FROM movies " +
+            "WHERE _id>? AND _id<=? AND _id NOT IN (SELECT docid " +
+            "FROM movies_fts WHERE docid>? AND docid<=?)", range);
+         return chunkEnd;
+      }
+   } // end class SearchIndexMigration
+
+   // version 4: moves director, writer, actor and actress out of movies
+   // into people and credits, so each name is stored once
+   private static class PeopleMigration extends Migration
+   {
+      public PeopleMigration()
+      {
+         super(4);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         db.execSQL("CREATE TABLE people (_id INTEGER PRIMARY KEY, " +
+            "name TEXT NOT NULL COLLATE NOCASE UNIQUE)");
+         db.execSQL("CREATE TABLE credits (movie_id INTEGER NOT NULL, " +
+            "role INTEGER NOT NULL, person_id INTEGER NOT NULL, " +
+            "PRIMARY KEY (movie_id, role))");
+         db.execSQL("CREATE INDEX credits_person " +
+            "ON credits (person_id, role, movie_id)");
+         db.execSQL("DROP INDEX IF EXISTS movies_director");
+      }
+
+      @Override
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         long chunkEnd = findChunkEnd(db, lastRowID, chunkSize);
+
+         if (chunkEnd < 0)
+            return -1; // every movie's people have been moved
+
+         DatabaseConnector.moveLegacyCredits(db, lastRowID + 1, chunkEnd);
+         return chunkEnd;
+      }
+
+      @Override
+      void finish(SQLiteDatabase db)
+      {
+         // a version 2 migration finishing after this upgrade recreates it
+         db.execSQL("DROP INDEX IF EXISTS movies_director");
+      }
+   } // end class PeopleMigration
+
+   // version 5: adds the genre, decade and director counts read by the
+   // statistics screen
+   private static class StatisticsMigration extends Migration
+   {
+      public StatisticsMigration()
+      {
+         super(5);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         for (String sql : MovieSchema.CREATE_STATISTICS_TABLES)
+            db.execSQL(sql);
+      }
+
+      @Override
+      void finish(SQLiteDatabase db)
+      {
+         // runs after every earlier migration has finished, as a version 2
+         // migration's table swap would drop triggers on movies; counting
+         // and creating the triggers in one transaction misses no write
+         for (String sql : MovieSchema.CREATE_STATISTICS_TRIGGERS)
+            db.execSQL(sql);
+
+         for (String sql : MovieSchema.REBUILD_STATISTICS)
+            db.execSQL(sql);
+      }
+   } // end class StatisticsMigration
+
+   // version 6: adds movies.sort_director and replaces the name, genre 
+   // and year indexes with the movie list's covering sort indexes
+   private static class ListOrderMigration extends Migration
+   {
+      public ListOrderMigration()
+      {
+         super(6);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         addSortDirector(db);
+      }
+
+      @Override
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         long chunkEnd = findChunkEnd(db, lastRowID, chunkSize);
+
+         if (chunkEnd < 0)
+            return -1; // every movie's director has been copied
+
+         db.execSQL("UPDATE movies SET sort_director=" +
+            "(SELECT p.name FROM credits c JOIN people p " +
+            "ON p._id=c.person_id WHERE c.movie_id=movies._id " +
+            "AND c.role=" + MovieSchema.ROLE_DIRECTOR + ") " +
+            "WHERE _id>? AND _id<=?", new Object[] { lastRowID, chunkEnd });
+         return chunkEnd;
+      }
+
+      @Override
+      void finish(SQLiteDatabase db)
+      {
+         db.execSQL("DROP INDEX IF EXISTS movies_name");
+         db.execSQL("DROP INDEX IF EXISTS movies_genre");
+         db.execSQL("DROP INDEX IF EXISTS movies_year");
+
+         for (String sql : MovieSchema.CREATE_MOVIES_INDEXES)
+            db.execSQL(sql);
+      }
+
+      // adds the column and the triggers that maintain it, unless present
+      private static void addSortDirector(SQLiteDatabase db)
+      {
+         addColumn(db, "sort_director", "TEXT");
+
+         for (String sql : MovieSchema.CREATE_SORT_DIRECTOR_TRIGGERS)
+            db.execSQL(sql);
+      }
+   } // end class ListOrderMigration
+
+   // version 7: movies gets a poster column naming the movie's poster
+   // file; existing movies have none, so no rows are copied
+   private static class PosterMigration extends Migration
+   {
+      public PosterMigration()
+      {
+         super(7);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         addColumn(db, "poster", "TEXT");
+      }
+   } // end class PosterMigration
+
+   // version 8: movies gets match_hash, hashed in Java as MovieKeys 
+   // normalizes names, and indexed once every movie has been hashed
+   private static class MatchHashMigration extends Migration
+   {
+      public MatchHashMigration()
+      {
+         super(8);
+      }
+
+      @Override
+      void upgrade(SQLiteDatabase db)
+      {
+         addColumn(db, "match_hash", "INTEGER");
+      }
+
+      @Override
+      long migrateChunk(SQLiteDatabase db, long lastRowID, int chunkSize)
+      {
+         long chunkEnd = findChunkEnd(db, lastRowID, chunkSize);
+
+         if (chunkEnd < 0)
+            return -1; // every movie has been hashed
+
+         Cursor cursor = db.rawQuery("SELECT _id, name, year FROM movies " +
+            "WHERE _id>? AND _id<=?", new String[] {
+               String.valueOf(lastRowID), String.valueOf(chunkEnd) });
+         SQLiteStatement update = db.compileStatement(
+            "UPDATE movies SET match_hash=? WHERE _id=?");
+
+         try
+         {
+            while (cursor.moveToNext())
+            {
+               update.bindLong(1, MovieKeys.matchHash(cursor.getString(1),
+                  cursor.getString(2)));
+               update.bindLong(2, cursor.getLong(0));
+               update.executeUpdateDelete();
+            }
+         }
+         finally
+         {
+            update.close();
+            cursor.close();
+         }
+
+         return chunkEnd;
+      } // end method migrateChunk
+
+      @Override
+      void finish(SQLiteDatabase db)
+      {
+         db.execSQL(MovieSchema.CREATE_MATCH_HASH_INDEX);
+      }
+   } // end class MatchHashMigration
+} // end class SchemaMigrations
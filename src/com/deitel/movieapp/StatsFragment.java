@@ -0,0 +1,154 @@
+// StatsFragment.java
+// Displays movie counts by genre, decade and director
+package com.deitel.movieapp;
+
+import android.app.Fragment;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+public class StatsFragment extends Fragment implements MovieChanges.Listener
+{
+   // directors listed, most movies first
+   private static final int TOP_DIRECTORS = 10;
+   
+   private TextView genresTextView; // movies per genre
+   private TextView decadesTextView; // movies per decade
+   private TextView directorsTextView; // directors of most movies
+   
+   // cancel loading when detached
+   @Override
+   public void onDetach()
+   {
+      super.onDetach();
+      QueryScheduler.getInstance(getActivity()).cancelAll(this);
+   }
+
+   // called when StatsFragment's view needs to be created
+   @Override
+   public View onCreateView(LayoutInflater inflater, ViewGroup container,
+      Bundle savedInstanceState)
+   {
+      super.onCreateView(inflater, container, savedInstanceState);  
+      setRetainInstance(true); // save fragment across config changes
+      
+      // inflate StatsFragment's layout
+      View view = 
+         inflater.inflate(R.layout.fragment_stats, container, false);
+      
+      // get the TextViews
+      genresTextView = (TextView) view.findViewById(R.id.genresTextView);
+      decadesTextView = (TextView) view.findViewById(R.id.decadesTextView);
+      directorsTextView = 
+         (TextView) view.findViewById(R.id.directorsTextView);
+      return view;
+   }
+   
+   // load the counts and follow later changes while visible
+   @Override
+   public void onResume()
+   {
+      super.onResume();
+      MovieChanges.addListener(this);
+      loadStatistics();
+   }
+   
+   // stop following changes once no longer visible
+   @Override
+   public void onPause()
+   {
+      super.onPause();
+      MovieChanges.removeListener(this);
+   }
+   
+   // reload the counts after any saved change; loads still queued 
+   // collapse into one
+   @Override
+   public void onMovieChanged(int type, long rowID, String oldName, 
+      String newName, long version)
+   {
+      loadStatistics();
+   }
+   
+   // read the precomputed counts outside the GUI thread
+   private void loadStatistics()
+   {
+      QueryScheduler.getInstance(getActivity()).submit(this, 
+         "statistics@" + Integer.toHexString(hashCode()), 
+         QueryScheduler.PRIORITY_VISIBLE, new LoadStatisticsQuery(
+            getString(R.string.no_genre), getString(R.string.no_year), 
+            getString(R.string.no_statistics)));
+   }
+   
+   // builds the text of each list from the statistics tables
+   private class LoadStatisticsQuery extends QueryScheduler.Query<String[]>
+   {
+      private final String noGenre; // label for movies without a genre
+      private final String noYear; // label for movies without a year
+      private final String empty; // shown for a list with no rows
+      
+      public LoadStatisticsQuery(String noGenre, String noYear, 
+         String empty)
+      {
+         this.noGenre = noGenre;
+         this.noYear = noYear;
+         this.empty = empty;
+      }
+      
+      // return the genre, decade and director lists
+      @Override
+      protected String[] run(DatabaseConnector databaseConnector)
+      {
+         return new String[] {
+            format(databaseConnector.getGenreCounts(), false),
+            format(databaseConnector.getDecadeCounts(), true),
+            format(databaseConnector.getTopDirectors(TOP_DIRECTORS), false) 
+         };
+      }
+      
+      // return one "label: movies" line per row of cursor, then close it
+      private String format(Cursor cursor, boolean decades)
+      {
+         StringBuilder text = new StringBuilder();
+         
+         try
+         {
+            while (cursor.moveToNext())
+            {
+               String label = cursor.getString(0);
+               
+               if (decades)
+                  label = cursor.getLong(0) < 0 ? noYear : label + "s";
+               else if (label.length() == 0)
+                  label = noGenre;
+               
+               if (text.length() > 0)
+                  text.append('\n');
+               
+               text.append(label).append(": ").append(cursor.getLong(1));
+            }
+         }
+         finally
+         {
+            cursor.close();
+         }
+         
+         return text.length() > 0 ? text.toString() : empty;
+      } // end method format
+      
+      // display the lists if the view still exists
+      @Override
+      protected void onResult(String[] result)
+      {
+         if (getView() == null)
+            return;
+         
+         genresTextView.setText(result[0]);
+         decadesTextView.setText(result[1]);
+         directorsTextView.setText(result[2]);
+      }
+   } // end class LoadStatisticsQuery
+} // end class StatsFragment